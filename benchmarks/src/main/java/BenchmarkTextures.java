@@ -0,0 +1,67 @@
+import java.io.File;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Loads the textures of resources/textures for the benchmarks. The folder can
+ * be changed with the textures.dir system property.
+ */
+final class BenchmarkTextures {
+
+	/**
+	 * Load the OpenCV system library
+	 */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private BenchmarkTextures() {
+	}
+
+	/**
+	 * This method reads a texture and crops its centre to a square of the
+	 * given size, so every texture can be measured at the same sizes.
+	 * 
+	 * @param name
+	 *            File name of the texture
+	 * @param size
+	 *            Side (pixels) of the crop, or 0 to keep the whole texture
+	 * @return
+	 */
+	static Mat load(String name, int size) {
+		File textureFile = new File(System.getProperty("textures.dir",
+				"resources/textures"), name);
+		Mat texture = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		if (texture.empty()) {
+			throw new IllegalStateException("Cannot read " + textureFile);
+		}
+		if (size <= 0) {
+			return texture;
+		}
+		if (size > texture.rows() || size > texture.cols()) {
+			throw new IllegalArgumentException("Cannot crop " + name + " to "
+					+ size);
+		}
+		int x = (texture.cols() - size) / 2;
+		int y = (texture.rows() - size) / 2;
+		return texture.submat(new Rect(x, y, size, size)).clone();
+	}
+
+	/**
+	 * This method builds an output cell whose overlap is taken from another
+	 * part of the texture, like the cells in the middle of a synthesis.
+	 * 
+	 * @param texture
+	 * @param patchSize
+	 * @return
+	 */
+	static Mat outputCell(Mat texture, int patchSize) {
+		int x = texture.cols() - patchSize;
+		int y = texture.rows() - patchSize;
+		return texture.submat(new Rect(x, y, patchSize, patchSize)).clone();
+	}
+}
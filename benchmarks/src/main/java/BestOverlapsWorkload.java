@@ -0,0 +1,39 @@
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import bench.Workload;
+
+/**
+ * Filters the candidates within the tolerance of the best distance.
+ */
+public class BestOverlapsWorkload implements Workload {
+	private ImageQuilter quilter;
+	private double[][] dists;
+	private double threshold;
+	private Candidates candidates = new Candidates();
+
+	@Override
+	public void setup(Map<String, String> params) {
+		int patchSize = Integer.parseInt(params.get("patchSize"));
+		int overlapSize = Integer.parseInt(params.get("overlapSize"));
+		Mat textureImage = BenchmarkTextures.load(params.get("texture"),
+				Integer.parseInt(params.get("textureSize")));
+
+		quilter = new ImageQuilter(textureImage, patchSize, overlapSize,
+				false, 0);
+		dists = new double[textureImage.rows() - patchSize][textureImage
+				.cols() - patchSize];
+		Mat outputCell = BenchmarkTextures.outputCell(textureImage, patchSize);
+		Point best = new TemplateOverlapMatcher(textureImage, patchSize,
+				overlapSize).calcDists(dists, outputCell, 1, 1);
+		threshold = dists[(int) best.y][(int) best.x] * 1.1;
+	}
+
+	@Override
+	public Object run() {
+		quilter.getBestOverlaps(dists, threshold, candidates);
+		return candidates;
+	}
+}
@@ -0,0 +1,47 @@
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+import bench.Workload;
+
+/**
+ * Scores every candidate patch for an output cell with both overlaps.
+ */
+public class CalcDistsWorkload implements Workload {
+	private OverlapMatcher matcher;
+	private Mat outputCell;
+	private double[][] dists;
+
+	@Override
+	public void setup(Map<String, String> params) {
+		int patchSize = Integer.parseInt(params.get("patchSize"));
+		int overlapSize = Integer.parseInt(params.get("overlapSize"));
+		Mat textureImage = BenchmarkTextures.load(params.get("texture"),
+				Integer.parseInt(params.get("textureSize")));
+
+		if ("direct".equals(params.get("matcher"))) {
+			matcher = new DirectOverlapMatcher(textureImage, patchSize,
+					overlapSize);
+		} else if ("planar".equals(params.get("matcher"))) {
+			matcher = new PlanarOverlapMatcher(textureImage, patchSize,
+					overlapSize);
+		} else if ("bounded".equals(params.get("matcher"))) {
+			matcher = new BoundedOverlapMatcher(textureImage, patchSize,
+					overlapSize, ImageQuilter.DEFAULT_TOLERANCE);
+		} else if ("pyramid".equals(params.get("matcher"))) {
+			matcher = new PyramidOverlapMatcher(textureImage, patchSize,
+					overlapSize, 2, 16);
+		} else {
+			matcher = new TemplateOverlapMatcher(textureImage, patchSize,
+					overlapSize);
+		}
+		outputCell = BenchmarkTextures.outputCell(textureImage, patchSize);
+		dists = new double[textureImage.rows() - patchSize][textureImage
+				.cols() - patchSize];
+	}
+
+	@Override
+	public Object run() {
+		return matcher.calcDists(dists, outputCell, 1, 1);
+	}
+}
@@ -0,0 +1,48 @@
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import bench.Workload;
+
+/**
+ * Cuts the seams of an interior output cell and copies the chosen patch. The
+ * copy changes the cell, so it is restored by {@link #reset()} before every
+ * run.
+ */
+public class FillPatchWorkload implements Workload {
+	private ImageQuilter quilter;
+	private ImageQuilter.CellScratch scratch;
+	private Mat pristineCell;
+	private Mat outputCell;
+	private Point outputLoc;
+	private Point sourceLoc;
+
+	@Override
+	public void setup(Map<String, String> params) {
+		int patchSize = Integer.parseInt(params.get("patchSize"));
+		int overlapSize = Integer.parseInt(params.get("overlapSize"));
+		Mat textureImage = BenchmarkTextures.load(params.get("texture"), 0);
+
+		quilter = new ImageQuilter(textureImage, patchSize, overlapSize,
+				false, 0);
+		scratch = quilter.new CellScratch();
+		pristineCell = BenchmarkTextures.outputCell(textureImage, patchSize);
+		outputCell = pristineCell.clone();
+
+		// An interior cell, so both seams are cut
+		outputLoc = new Point(patchSize - overlapSize, patchSize - overlapSize);
+		sourceLoc = new Point(0, 0);
+	}
+
+	@Override
+	public Object run() {
+		quilter.fillPatch(outputCell, outputLoc, sourceLoc, scratch);
+		return outputCell;
+	}
+
+	@Override
+	public void reset() {
+		pristineCell.copyTo(outputCell);
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import bench.Workload;
+
+/**
+ * Finds the vertical seam through the left overlap of a pair of patches,
+ * with a path finder reused by every run as {@link SeamCutter} does.
+ */
+public class MinPathFinderWorkload implements Workload {
+	private MinPathFinder finder;
+	private double[] differences;
+	private int rows;
+	private int cols;
+
+	@Override
+	public void setup(Map<String, String> params) {
+		int patchSize = Integer.parseInt(params.get("patchSize"));
+		int overlapSize = Integer.parseInt(params.get("overlapSize"));
+		Mat textureImage = BenchmarkTextures.load(params.get("texture"), 0);
+
+		Mat outputCell = BenchmarkTextures.outputCell(textureImage, patchSize);
+		Mat sourceCell = textureImage.submat(new Rect(0, 0, patchSize,
+				patchSize));
+		rows = patchSize;
+		cols = overlapSize;
+		differences = leftOverlapDiff(ImageQuilter.texturePixels(outputCell),
+				ImageQuilter.texturePixels(sourceCell), patchSize, overlapSize,
+				textureImage.channels());
+		finder = new MinPathFinder(rows, cols);
+		sourceCell.release();
+		outputCell.release();
+		textureImage.release();
+	}
+
+	@Override
+	public Object run() {
+		finder.find(differences, rows, cols, false);
+		return finder;
+	}
+
+	/**
+	 * This method calculates the horizontal error surface of a pair of
+	 * patches: the squared differences summed over the channels.
+	 * 
+	 * @param output
+	 *            The output cell, interleaved row by row
+	 * @param source
+	 *            The patch, interleaved row by row
+	 * @param patchSize
+	 * @param overlapSize
+	 * @param channels
+	 * @return
+	 */
+	private static double[] leftOverlapDiff(byte[] output, byte[] source,
+			int patchSize, int overlapSize, int channels) {
+		double[] differences = new double[patchSize * overlapSize];
+		for (int r = 0; r < patchSize; r++) {
+			for (int c = 0; c < overlapSize; c++) {
+				int offset = (r * patchSize + c) * channels;
+				double sum = 0;
+				for (int ch = 0; ch < channels; ch++) {
+					int d = (output[offset + ch] & 0xff)
+							- (source[offset + ch] & 0xff);
+					sum += d * d;
+				}
+				differences[r * overlapSize + c] = sum;
+			}
+		}
+		return differences;
+	}
+}
@@ -0,0 +1,30 @@
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+import bench.Workload;
+
+/**
+ * Synthesizes a whole output image.
+ */
+public class SynthesizeWorkload implements Workload {
+	private ImageQuilter quilter;
+	private int outputSize;
+
+	@Override
+	public void setup(Map<String, String> params) {
+		int patchSize = Integer.parseInt(params.get("patchSize"));
+		int overlapSize = Integer.parseInt(params.get("overlapSize"));
+		Mat textureImage = BenchmarkTextures.load(params.get("texture"),
+				Integer.parseInt(params.get("textureSize")));
+
+		quilter = new ImageQuilter(textureImage, patchSize, overlapSize,
+				false, 0);
+		outputSize = Integer.parseInt(params.get("outputSize"));
+	}
+
+	@Override
+	public Object run() {
+		return quilter.synthesize(outputSize, outputSize);
+	}
+}
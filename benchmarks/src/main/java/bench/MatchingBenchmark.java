@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scoring of every candidate patch for one output cell with a
+ * left and a top overlap, and the filtering of the candidates within the
+ * tolerance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchingBenchmark {
+
+	@Param({ "0.jpg", "3.jpg" })
+	public String texture;
+
+	@Param({ "96", "160" })
+	public int textureSize;
+
+	@Param({ "24", "36" })
+	public int patchSize;
+
+	@Param({ "4", "6" })
+	public int overlapSize;
+
+	@Param({ "direct", "template", "planar", "bounded", "pyramid" })
+	public String matcher;
+
+	private Workload calcDists;
+	private Workload getBestOverlaps;
+
+	@Setup
+	public void setup() {
+		Object[] params = { "texture", texture, "textureSize", textureSize,
+				"patchSize", patchSize, "overlapSize", overlapSize, "matcher",
+				matcher };
+		calcDists = Workloads.create("CalcDistsWorkload", params);
+		getBestOverlaps = Workloads.create("BestOverlapsWorkload", params);
+	}
+
+	@Benchmark
+	public Object calcDists() {
+		return calcDists.run();
+	}
+
+	@Benchmark
+	public Object getBestOverlaps() {
+		return getBestOverlaps.run();
+	}
+}
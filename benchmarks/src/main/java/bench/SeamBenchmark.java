@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the min cost path through an overlap, and the minimum error
+ * boundary cut and the copy of a chosen patch in an output cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeamBenchmark {
+
+	@Param({ "0.jpg" })
+	public String texture;
+
+	@Param({ "24", "36", "64" })
+	public int patchSize;
+
+	@Param({ "4", "6", "12" })
+	public int overlapSize;
+
+	private Workload minPathFinder;
+
+	@Setup
+	public void setup() {
+		minPathFinder = Workloads.create("MinPathFinderWorkload", params());
+	}
+
+	private Object[] params() {
+		return new Object[] { "texture", texture, "patchSize", patchSize,
+				"overlapSize", overlapSize };
+	}
+
+	/**
+	 * The fill patch workload, whose output cell is restored before every
+	 * invocation, out of the measured time. It has its own state so the other
+	 * benchmarks do not pay for the invocation setup.
+	 */
+	@State(Scope.Thread)
+	public static class FillPatch {
+		private Workload workload;
+
+		@Setup
+		public void setup(SeamBenchmark benchmark) {
+			workload = Workloads.create("FillPatchWorkload",
+					benchmark.params());
+		}
+
+		@Setup(Level.Invocation)
+		public void reset() {
+			workload.reset();
+		}
+	}
+
+	@Benchmark
+	public Object minPathFinder() {
+		return minPathFinder.run();
+	}
+
+	@Benchmark
+	public Object fillPatch(FillPatch fillPatch) {
+		return fillPatch.workload.run();
+	}
+}
@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole synthesis run.
+ * 
+ * Build with mvn package from the root folder and run from it, pointing
+ * java.library.path at the unpacked OpenCV library:
+ * 
+ * <pre>
+ * java -Djava.library.path=benchmarks/target/natives/nu/pattern/opencv/linux/x86_64 \
+ *     -jar benchmarks/target/benchmarks.jar
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SynthesisBenchmark {
+
+	@Param({ "0.jpg", "2.jpg", "3.jpg" })
+	public String texture;
+
+	@Param({ "128" })
+	public int textureSize;
+
+	@Param({ "24", "36" })
+	public int patchSize;
+
+	@Param({ "4", "6" })
+	public int overlapSize;
+
+	@Param({ "256" })
+	public int outputSize;
+
+	private Workload synthesize;
+
+	@Setup
+	public void setup() {
+		synthesize = Workloads.create("SynthesizeWorkload", "texture",
+				texture, "textureSize", textureSize, "patchSize", patchSize,
+				"overlapSize", overlapSize, "outputSize", outputSize);
+	}
+
+	@Benchmark
+	public Object synthesize() {
+		return synthesize.run();
+	}
+}
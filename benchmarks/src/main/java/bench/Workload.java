@@ -0,0 +1,35 @@
+package bench;
+
+import java.util.Map;
+
+/**
+ * A piece of work measured by the benchmarks.
+ * 
+ * The quilting classes live in the default package, which JMH benchmarks
+ * cannot import, so each measured operation is wrapped in a default package
+ * class implementing this interface and created by name.
+ */
+public interface Workload {
+
+	/**
+	 * Prepares everything the operation needs, out of the measured time.
+	 * 
+	 * @param params
+	 *            The benchmark parameters, by name
+	 */
+	void setup(Map<String, String> params);
+
+	/**
+	 * Runs the measured operation once.
+	 * 
+	 * @return a result, so the JIT cannot drop the work
+	 */
+	Object run();
+
+	/**
+	 * Restores what the last run changed, out of the measured time, so every
+	 * run does the same work. It does nothing by default.
+	 */
+	default void reset() {
+	}
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the default package workloads.
+ */
+final class Workloads {
+
+	private Workloads() {
+	}
+
+	/**
+	 * This method creates a workload by class name and sets it up.
+	 * 
+	 * @param className
+	 *            Name of a default package class implementing Workload
+	 * @param params
+	 *            Pairs of parameter names and values
+	 * @return
+	 */
+	static Workload create(String className, Object... params) {
+		Map<String, String> map = new HashMap<>();
+		for (int i = 0; i < params.length; i += 2) {
+			map.put((String) params[i], String.valueOf(params[i + 1]));
+		}
+
+		Workload workload;
+		try {
+			workload = (Workload) Class.forName(className)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create " + className, e);
+		}
+		workload.setup(map);
+		return workload;
+	}
+}
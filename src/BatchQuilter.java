@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Runs many synthesis jobs on a bounded pool of threads. The preprocessing of
+ * every texture is kept in a {@link TextureCache}, so jobs on the same
+ * texture only pay for it once. With a {@link ResultCache} the synthesized
+ * images are kept too, and a repeated job is read instead of synthesized.
+ */
+public class BatchQuilter implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(BatchQuilter.class
+			.getName());
+	/**
+	 * Time (minutes) {@link #close()} waits for the queued jobs
+	 */
+	private static final long CLOSE_TIMEOUT_MINUTES = 10;
+
+	private TextureCache cache;
+	private ResultCache resultCache;
+	private ThreadPoolExecutor executor;
+	private int indexComponents;
+	/**
+	 * Hash of each texture file, with the modification time and length it
+	 * was computed for, so a batch reads and hashes every texture once
+	 */
+	private Map<String, String[]> textureHashes = new ConcurrentHashMap<>();
+
+	/**
+	 * Load the OpenCV system library
+	 */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/**
+	 * @param threads
+	 *            Number of jobs run at the same time
+	 * @param queueSize
+	 *            Number of jobs waiting to run. When the queue is full the
+	 *            job runs in the submitting thread, which slows down the
+	 *            producer.
+	 * @param memoryBudget
+	 *            Memory (bytes) the cached texture preprocessing may hold
+	 * @param indexComponents
+	 *            PCA components of the candidate indexes, 0 to index the full
+	 *            strips or a negative number to scan without an index
+	 */
+	public BatchQuilter(int threads, int queueSize, long memoryBudget,
+			int indexComponents) {
+		this.cache = new TextureCache(memoryBudget, indexComponents);
+		this.indexComponents = indexComponents;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * This method queues a job.
+	 * 
+	 * @param job
+	 * @return the synthesized image, when the job is done
+	 */
+	public Future<Mat> submit(final QuiltJob job) {
+		return executor.submit(new Callable<Mat>() {
+			@Override
+			public Mat call() {
+				return run(job);
+			}
+		});
+	}
+
+	/**
+	 * This method queues several jobs.
+	 * 
+	 * @param jobs
+	 * @return the synthesized images, in the order of the jobs
+	 */
+	public List<Future<Mat>> submitAll(Collection<QuiltJob> jobs) {
+		List<Future<Mat>> results = new ArrayList<>();
+		for (QuiltJob job : jobs) {
+			results.add(submit(job));
+		}
+		return results;
+	}
+
+	/**
+	 * This method runs a job in the calling thread.
+	 * 
+	 * @param job
+	 * @return the synthesized image
+	 */
+	public Mat run(QuiltJob job) {
+		String key = null;
+		if (resultCache != null) {
+			key = resultKey(job);
+			Mat cached = resultCache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		Mat output = synthesize(job);
+		if (key != null) {
+			try {
+				resultCache.put(key, output);
+			} catch (IOException e) {
+				// The job is done anyway, it will be synthesized again
+				LOGGER.log(Level.WARNING, "Cannot cache the result of "
+						+ job.getTexturePath(), e);
+			}
+		}
+		return output;
+	}
+
+	private Mat synthesize(QuiltJob job) {
+		TextureCache.Entry entry = cache.acquire(job.getTexturePath(),
+				job.getPatchSize(), job.getOverlapSize());
+		try (ImageQuilter quilter = new ImageQuilter(entry.getTexture(),
+				entry.getPixels(), job.getPatchSize(), job.getOverlapSize(),
+				false, 0, entry.getMatcher(), entry.getIndex())) {
+			quilter.setSeed(job.getSeed());
+			return quilter.synthesize(job.getOutWidth(), job.getOutHeight());
+		} finally {
+			cache.release(entry);
+		}
+	}
+
+	/**
+	 * This method builds the key of the result of a job. The candidates come
+	 * in a different order with and without an index, so the same seed gives
+	 * different images and the index setting is part of the key.
+	 * 
+	 * @param job
+	 * @return
+	 */
+	private String resultKey(QuiltJob job) {
+		String textureHash = textureHash(new File(job.getTexturePath()));
+		return ResultCache.key(textureHash, job.getOutWidth(),
+				job.getOutHeight(), job.getPatchSize(), job.getOverlapSize(),
+				ImageQuilter.DEFAULT_TOLERANCE, indexComponents, job.getSeed());
+	}
+
+	/**
+	 * This method returns the hash of a texture file, hashing it again only
+	 * if it changed since the last job.
+	 * 
+	 * @param textureFile
+	 * @return
+	 */
+	private String textureHash(File textureFile) {
+		String stamp = textureFile.lastModified() + "|" + textureFile.length();
+		String path = textureFile.getAbsolutePath();
+		String[] cached = textureHashes.get(path);
+		if (cached != null && cached[0].equals(stamp)) {
+			return cached[1];
+		}
+		String hash;
+		try {
+			hash = ResultCache.textureHash(textureFile);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read texture "
+					+ textureFile, e);
+		}
+		textureHashes.put(path, new String[] { stamp, hash });
+		return hash;
+	}
+
+	/**
+	 * Sets the cache of synthesized images, or null to synthesize every job.
+	 * 
+	 * @param resultCache
+	 */
+	public void setResultCache(ResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	public TextureCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * This method waits for the queued jobs, at most ten minutes, and frees
+	 * the cache. The entries of jobs still running then are freed when they
+	 * finish. If the calling thread is interrupted it stops waiting and keeps
+	 * its interrupt flag.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT_MINUTES,
+					TimeUnit.MINUTES)) {
+				LOGGER.warning("Closed with jobs still running");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		cache.clear();
+	}
+}
@@ -0,0 +1,139 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves a {@link LocalBorderTransport} to the {@link SocketBorderTransport}s
+ * of workers in other processes. Every connection carries one request: a
+ * strip to send, answered with an acknowledgement, or the tile and edge of a
+ * strip to receive, answered with the strip once it is sent and then
+ * acknowledged by the receiver. A strip is only taken from the transport
+ * once its receiver acknowledges it, so a receiver that disconnects before
+ * does not lose it. The process of the server uses the local transport
+ * directly.
+ */
+public class BorderServer implements AutoCloseable {
+	static final byte SEND = 'S';
+	static final byte RECEIVE = 'R';
+	static final byte OK = 'K';
+
+	private static final Logger LOGGER = Logger.getLogger(BorderServer.class
+			.getName());
+
+	private LocalBorderTransport transport = new LocalBorderTransport();
+	private ServerSocket serverSocket;
+	private ExecutorService executor;
+
+	/**
+	 * This constructor starts serving.
+	 *
+	 * @param port
+	 *            The port to listen on, 0 for any free one
+	 * @param address
+	 *            The address to listen on, null for all of them
+	 * @throws IOException
+	 *             If the port cannot be bound
+	 */
+	public BorderServer(int port, InetAddress address) throws IOException {
+		serverSocket = new ServerSocket(port, 50, address);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "border-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (SocketException e) {
+				// Closed
+				return;
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to accept a connection", e);
+				continue;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					serve(socket);
+				}
+			});
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(s.getOutputStream()));
+			byte request = in.readByte();
+			if (request == SEND) {
+				transport.send(BorderStrip.read(in));
+				out.writeByte(OK);
+			} else if (request == RECEIVE) {
+				int tileCol = in.readInt();
+				int tileRow = in.readInt();
+				BorderStrip.Edge edge = BorderStrip.readEdge(in);
+				BorderStrip strip = transport.peek(tileCol, tileRow, edge);
+				strip.write(out);
+				out.flush();
+				if (in.readByte() != OK) {
+					throw new IOException("Strip not acknowledged");
+				}
+				transport.remove(strip);
+			} else {
+				throw new IOException("Bad request " + request);
+			}
+			out.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to serve a border strip", e);
+		}
+	}
+
+	/**
+	 * @return the transport the strips of the workers go to
+	 */
+	public BorderTransport getTransport() {
+		return transport;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * This method stops serving. The strips that are still waited for are
+	 * not received.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,155 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Pixels along an edge of a tile, sent by the worker of the tile to the
+ * worker of its neighbour through a {@link BorderTransport}. The pixels are
+ * kept serialized, interleaved 8 bit BGR row by row, so they go to another
+ * process as they are.
+ */
+public class BorderStrip {
+	public enum Edge {
+		/**
+		 * The overlapSize columns on the right of the tile, for the tile on
+		 * its right
+		 */
+		RIGHT,
+		/**
+		 * The overlapSize rows at the bottom of the tile, for the tile below
+		 */
+		BOTTOM,
+		/**
+		 * The whole tile, for the coordinator that reconciles the tiles
+		 */
+		TILE
+	}
+
+	private static final int CHANNELS = 3;
+
+	private int tileCol;
+	private int tileRow;
+	private Edge edge;
+	private int rows;
+	private int cols;
+	private byte[] pixels;
+
+	/**
+	 * @param tileCol
+	 *            Column of the tile the strip comes from
+	 * @param tileRow
+	 *            Row of the tile the strip comes from
+	 * @param edge
+	 * @param strip
+	 *            The pixels (CV_8UC3), copied
+	 */
+	public BorderStrip(int tileCol, int tileRow, Edge edge, Mat strip) {
+		if (strip.type() != CvType.CV_8UC3) {
+			throw new IllegalArgumentException("Strip must be CV_8UC3");
+		}
+		this.tileCol = tileCol;
+		this.tileRow = tileRow;
+		this.edge = edge;
+		this.rows = strip.rows();
+		this.cols = strip.cols();
+		this.pixels = new byte[rows * cols * CHANNELS];
+
+		// A submat is not continuous, so it is read one row at a time
+		byte[] row = new byte[cols * CHANNELS];
+		for (int r = 0; r < rows; r++) {
+			strip.get(r, 0, row);
+			System.arraycopy(row, 0, pixels, r * row.length, row.length);
+		}
+	}
+
+	private BorderStrip(int tileCol, int tileRow, Edge edge, int rows,
+			int cols, byte[] pixels) {
+		this.tileCol = tileCol;
+		this.tileRow = tileRow;
+		this.edge = edge;
+		this.rows = rows;
+		this.cols = cols;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * This method copies the pixels in a new image, which the caller
+	 * releases.
+	 *
+	 * @return
+	 */
+	public Mat toMat() {
+		Mat strip = new Mat(rows, cols, CvType.CV_8UC3);
+		strip.put(0, 0, pixels);
+		return strip;
+	}
+
+	/**
+	 * This method writes the strip: the tile, the edge, the size and the
+	 * pixels.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(tileCol);
+		out.writeInt(tileRow);
+		out.writeByte(edge.ordinal());
+		out.writeInt(rows);
+		out.writeInt(cols);
+		out.write(pixels);
+	}
+
+	/**
+	 * This method reads a strip written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static BorderStrip read(DataInput in) throws IOException {
+		int tileCol = in.readInt();
+		int tileRow = in.readInt();
+		Edge edge = readEdge(in);
+		int rows = in.readInt();
+		int cols = in.readInt();
+		if (rows < 1 || cols < 1
+				|| (long) rows * cols * CHANNELS > Integer.MAX_VALUE) {
+			throw new IOException("Bad strip size " + cols + "x" + rows);
+		}
+		byte[] pixels = new byte[rows * cols * CHANNELS];
+		in.readFully(pixels);
+		return new BorderStrip(tileCol, tileRow, edge, rows, cols, pixels);
+	}
+
+	static Edge readEdge(DataInput in) throws IOException {
+		int edge = in.readByte();
+		if (edge < 0 || edge >= Edge.values().length) {
+			throw new IOException("Bad strip edge " + edge);
+		}
+		return Edge.values()[edge];
+	}
+
+	public int getTileCol() {
+		return tileCol;
+	}
+
+	public int getTileRow() {
+		return tileRow;
+	}
+
+	public Edge getEdge() {
+		return edge;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+}
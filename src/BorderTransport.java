@@ -0,0 +1,35 @@
+import java.io.IOException;
+
+/**
+ * Carries the {@link BorderStrip}s between the workers of a tiled synthesis,
+ * and the finished tiles to the coordinator. Every strip is sent once and
+ * received once.
+ */
+public interface BorderTransport {
+
+	/**
+	 * This method makes a strip available to its receiver.
+	 *
+	 * @param strip
+	 * @throws IOException
+	 *             If the strip cannot be delivered
+	 */
+	void send(BorderStrip strip) throws IOException;
+
+	/**
+	 * This method waits for a strip and takes it.
+	 *
+	 * @param tileCol
+	 *            Column of the tile the strip comes from
+	 * @param tileRow
+	 *            Row of the tile the strip comes from
+	 * @param edge
+	 * @return
+	 * @throws IOException
+	 *             If the strip cannot be received
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	BorderStrip receive(int tileCol, int tileRow, BorderStrip.Edge edge)
+			throws IOException, InterruptedException;
+}
@@ -0,0 +1,274 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * This matcher stops scoring a candidate as soon as it can no longer be
+ * chosen. The SSD of a candidate is summed one strip row at a time and the
+ * candidate is abandoned when the partial sum passes tolerance times the best
+ * full SSD seen so far. The best full SSD only goes down, so an abandoned
+ * candidate is above the final threshold too.
+ *
+ * To have a low bound early, some candidates are scored in full before the
+ * scan: the neighbourhoods of the best patches of the cells on the left and
+ * above, shifted by a cell step, which usually continue the overlaps well,
+ * and a sparse grid. The scan then goes in raster order, so the best
+ * location is the same one given by the other matchers.
+ *
+ * Every candidate within tolerance of the best one gets its exact SSD in
+ * dists, the same one produced by {@link DirectOverlapMatcher}. The others
+ * get the partial sum they were abandoned at, which is already over the
+ * threshold. The set of candidates within tolerance is then exactly the one
+ * of the other matchers, as long as the tolerance used to filter it is not
+ * bigger than the one given here. {@link ImageQuilter} refuses a bigger one.
+ */
+public class BoundedOverlapMatcher implements OverlapMatcher {
+	/**
+	 * Distance (candidates) between the samples scored before the scan
+	 */
+	private static final int SAMPLE_STEP = 8;
+	/**
+	 * Number of cells whose best location is remembered
+	 */
+	private static final int MAX_HINTS = 1 << 16;
+
+	/**
+	 * The texture, interleaved
+	 */
+	private byte[] texture;
+	private int textureCols;
+	private int channels;
+	private int patchSize;
+	private int overlapSize;
+	private double tolerance;
+	private ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Best location of the last cells scored, by cell position
+	 */
+	private ConcurrentHashMap<Long, Long> bestLocations = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of candidate rows and columns, the same size as dists.
+	 */
+	private int rows;
+	private int cols;
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param tolerance
+	 *            The tolerance the candidates are filtered with afterwards,
+	 *            see {@link ImageQuilter#setTolerance(double)}
+	 */
+	public BoundedOverlapMatcher(Mat textureImage, int patchSize,
+			int overlapSize, double tolerance) {
+		if (tolerance < 1) {
+			throw new IllegalArgumentException("Tolerance must be at least 1");
+		}
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.tolerance = tolerance;
+		this.rows = textureImage.rows() - patchSize;
+		this.cols = textureImage.cols() - patchSize;
+		this.textureCols = textureImage.cols();
+		this.channels = textureImage.channels();
+
+		this.texture = ImageQuilter.texturePixels(textureImage);
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0, rows);
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		byte[] cell = workspace.readCell(outputCell);
+
+		// The cell may be cropped by the edge of the output
+		int leftHeight = cellCol != 0 ? outputCell.rows() : 0;
+		int topWidth = cellRow != 0 ? outputCell.cols() : 0;
+
+		// A bound that every candidate passes until a full SSD is known
+		long bound = Long.MAX_VALUE;
+		int step = patchSize - overlapSize;
+		bound = hintBound(cell, cellCol - step, cellRow, step, 0, rowStart,
+				rowEnd, leftHeight, topWidth, bound);
+		bound = hintBound(cell, cellCol, cellRow - step, 0, step, rowStart,
+				rowEnd, leftHeight, topWidth, bound);
+		for (int y = rowStart; y < rowEnd; y += SAMPLE_STEP) {
+			for (int x = 0; x < cols; x += SAMPLE_STEP) {
+				long ssd = ssd(cell, x, y, leftHeight, topWidth, bound);
+				bound = Math.min(bound, bound(ssd));
+			}
+		}
+
+		long best = Long.MAX_VALUE;
+		Point bestloc = null;
+		for (int y = rowStart; y < rowEnd; y++) {
+			double[] row = dists[y];
+			for (int x = 0; x < cols; x++) {
+				long ssd = ssd(cell, x, y, leftHeight, topWidth, bound);
+				row[x] = ssd;
+				if (ssd < best) {
+					best = ssd;
+					bestloc = new Point(x, y);
+					bound = Math.min(bound, bound(ssd));
+				}
+			}
+		}
+		if (bestloc != null) {
+			if (bestLocations.size() >= MAX_HINTS) {
+				bestLocations.clear();
+			}
+			bestLocations.put(key(cellCol, cellRow), key((int) bestloc.x,
+					(int) bestloc.y));
+		}
+		workspaces.add(workspace);
+		return bestloc;
+	}
+
+	/**
+	 * This method lowers the bound with the neighbourhood of the best
+	 * location of another cell, shifted by the offset between the cells.
+	 *
+	 * @param cell
+	 * @param hintCol
+	 *            Column (pixels) of the other cell on the whole output
+	 * @param hintRow
+	 *            Row (pixels) of the other cell on the whole output
+	 * @param dx
+	 * @param dy
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param leftHeight
+	 * @param topWidth
+	 * @param bound
+	 * @return the new bound
+	 */
+	private long hintBound(byte[] cell, int hintCol, int hintRow, int dx,
+			int dy, int rowStart, int rowEnd, int leftHeight, int topWidth,
+			long bound) {
+		Long loc = bestLocations.get(key(hintCol, hintRow));
+		if (loc == null) {
+			return bound;
+		}
+		int hintX = (int) (loc >> 32) + dx;
+		int hintY = (int) (long) loc + dy;
+		for (int y = Math.max(rowStart, hintY - 1); y <= hintY + 1
+				&& y < rowEnd; y++) {
+			for (int x = Math.max(0, hintX - 1); x <= hintX + 1 && x < cols; x++) {
+				long ssd = ssd(cell, x, y, leftHeight, topWidth, bound);
+				bound = Math.min(bound, bound(ssd));
+			}
+		}
+		return bound;
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	/**
+	 * This method sums the SSD of a candidate one strip row at a time, the
+	 * top strip first, and stops when it passes the bound.
+	 *
+	 * @param cell
+	 * @param x
+	 * @param y
+	 * @param leftHeight
+	 *            Height of the left strip, 0 without left overlap
+	 * @param topWidth
+	 *            Width of the top strip, 0 without top overlap
+	 * @param bound
+	 * @return the SSD, or a partial sum bigger than the bound
+	 */
+	private long ssd(byte[] cell, int x, int y, int leftHeight,
+			int topWidth, long bound) {
+		long sum = 0;
+		int cellStride = patchSize * channels;
+		int textureStride = textureCols * channels;
+		for (int r = 0; r < overlapSize && topWidth > 0; r++) {
+			sum += OverlapSsd.stripSsd(cell, r * cellStride, cellStride,
+					texture, (y + r) * textureStride + x * channels,
+					textureStride, topWidth * channels, 1);
+			if (sum > bound) {
+				return sum;
+			}
+		}
+		for (int r = 0; r < leftHeight; r++) {
+			sum += OverlapSsd.stripSsd(cell, r * cellStride, cellStride,
+					texture, (y + r) * textureStride + x * channels,
+					textureStride, overlapSize * channels, 1);
+			if (sum > bound) {
+				return sum;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * This method gives the largest SSD that is within tolerance of the
+	 * given one, rounded down as the SSDs are integers.
+	 */
+	private long bound(long ssd) {
+		return (long) Math.floor(ssd * tolerance);
+	}
+
+	/**
+	 * @return the largest tolerance the candidates can be filtered with
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	@Override
+	public int candidateRows() {
+		return rows;
+	}
+
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		return 0;
+	}
+
+	@Override
+	public void release() {
+		// Nothing native is held, only the pooled java buffers
+		workspaces.clear();
+	}
+
+	/**
+	 * @return an estimate of the memory (bytes) held by the matcher
+	 */
+	public long byteSize() {
+		return texture.length;
+	}
+
+	/**
+	 * Buffers reused by every call. Calls running at the same time take
+	 * different workspaces.
+	 */
+	private class Workspace {
+		private byte[] cell = new byte[patchSize * patchSize * channels];
+		private byte[] row = new byte[patchSize * channels];
+
+		byte[] readCell(Mat outputCell) {
+			OverlapSsd.readCell(outputCell, row, cell, patchSize * channels);
+			return cell;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+import java.util.Random;
+
+import org.opencv.core.Point;
+
+/**
+ * A reusable buffer of the input patch locations an output cell may take,
+ * with the score of each one. Every location is kept as the primitive id
+ * y * cols + x, so collecting them does not allocate.
+ */
+public class Candidates {
+	private int[] ids = new int[256];
+	private double[] scores = new double[256];
+	private int size;
+	private int cols;
+	private long scanned;
+	private int[] heap = new int[0];
+	private int[] keptIds = new int[0];
+	private double[] keptScores = new double[0];
+
+	/**
+	 * This method empties the buffer.
+	 * 
+	 * @param cols
+	 *            Number of candidate columns of the texture
+	 */
+	public void clear(int cols) {
+		this.cols = cols;
+		this.size = 0;
+		this.scanned = 0;
+	}
+
+	/**
+	 * Sets the number of patches whose distance was computed to find the
+	 * candidates.
+	 * 
+	 * @param scanned
+	 */
+	public void setScanned(long scanned) {
+		this.scanned = scanned;
+	}
+
+	public long getScanned() {
+		return scanned;
+	}
+
+	public void add(int x, int y, double score) {
+		addId(y * cols + x, score);
+	}
+
+	public void addId(int id, double score) {
+		if (size == ids.length) {
+			int[] grownIds = new int[ids.length * 2];
+			double[] grownScores = new double[ids.length * 2];
+			System.arraycopy(ids, 0, grownIds, 0, size);
+			System.arraycopy(scores, 0, grownScores, 0, size);
+			ids = grownIds;
+			scores = grownScores;
+		}
+		ids[size] = id;
+		scores[size] = score;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int x(int i) {
+		return ids[i] % cols;
+	}
+
+	public int y(int i) {
+		return ids[i] / cols;
+	}
+
+	public double score(int i) {
+		return scores[i];
+	}
+
+	public void setScore(int i, double score) {
+		scores[i] = score;
+	}
+
+	/**
+	 * This method keeps only the k candidates with the lowest score, ties
+	 * going to the lowest id, in id order. The result does not depend on the
+	 * order the candidates were added in.
+	 * 
+	 * @param k
+	 */
+	public void retainBest(int k) {
+		if (size <= k) {
+			return;
+		}
+
+		if (heap.length < k) {
+			heap = new int[k];
+			keptIds = new int[k];
+			keptScores = new double[k];
+		}
+
+		// Max-heap of the best positions so far, the worst one on top
+		for (int i = 0; i < size; i++) {
+			if (i < k) {
+				int j = i;
+				while (j > 0 && worse(i, heap[(j - 1) >>> 1])) {
+					heap[j] = heap[(j - 1) >>> 1];
+					j = (j - 1) >>> 1;
+				}
+				heap[j] = i;
+			} else if (worse(heap[0], i)) {
+				int j = 0;
+				while (true) {
+					int child = 2 * j + 1;
+					if (child >= k) {
+						break;
+					}
+					if (child + 1 < k && worse(heap[child + 1], heap[child])) {
+						child++;
+					}
+					if (!worse(heap[child], i)) {
+						break;
+					}
+					heap[j] = heap[child];
+					j = child;
+				}
+				heap[j] = i;
+			}
+		}
+
+		// Move the kept ones to the front, sorted by id
+		for (int i = 0; i < k; i++) {
+			int j = i;
+			int id = ids[heap[i]];
+			while (j > 0 && keptIds[j - 1] > id) {
+				keptIds[j] = keptIds[j - 1];
+				keptScores[j] = keptScores[j - 1];
+				j--;
+			}
+			keptIds[j] = id;
+			keptScores[j] = scores[heap[i]];
+		}
+		System.arraycopy(keptIds, 0, ids, 0, k);
+		System.arraycopy(keptScores, 0, scores, 0, k);
+		size = k;
+	}
+
+	/**
+	 * This method keeps only the candidates whose score is not bigger than
+	 * the threshold, in the same order.
+	 * 
+	 * @param threshold
+	 */
+	public void retainWithin(double threshold) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (scores[i] <= threshold) {
+				ids[kept] = ids[i];
+				scores[kept] = scores[i];
+				kept++;
+			}
+		}
+		size = kept;
+	}
+
+	/**
+	 * @return the lowest score
+	 */
+	public double bestScore() {
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			best = Math.min(best, scores[i]);
+		}
+		return best;
+	}
+
+	/**
+	 * This method chooses one of the candidates with the same probability.
+	 * 
+	 * @param random
+	 * @return
+	 */
+	public Point pick(Random random) {
+		int choice = random.nextInt(size);
+		return new Point(x(choice), y(choice));
+	}
+
+	private boolean worse(int a, int b) {
+		return scores[a] > scores[b] || (scores[a] == scores[b] && ids[a] > ids[b]);
+	}
+}
@@ -0,0 +1,132 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Timings (nanoseconds) and counters of the placement of one output cell.
+ * The phases are the scoring of the candidates, the filtering of the ones
+ * within tolerance, the seam cut of the overlaps and the copy of the patch.
+ */
+public class CellMetrics {
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+	private static final boolean COUNTS_ALLOCATIONS = countsAllocations();
+
+	private int col;
+	private int row;
+	long scoringNanos;
+	long filteringNanos;
+	long seamNanos;
+	long copyNanos;
+	long candidatesScanned;
+	long candidatesWithinTolerance;
+	long bytesAllocated;
+
+	/**
+	 * @param col
+	 *            Column (pixels) of the cell on the whole output
+	 * @param row
+	 *            Row (pixels) of the cell on the whole output
+	 */
+	CellMetrics(int col, int row) {
+		this.col = col;
+		this.row = row;
+	}
+
+	/**
+	 * This method returns the bytes allocated so far by the current thread,
+	 * or -1 if the JVM does not count them.
+	 * 
+	 * @return
+	 */
+	static long allocatedBytes() {
+		return COUNTS_ALLOCATIONS ? AllocationCounter.allocatedBytes() : -1;
+	}
+
+	private static boolean countsAllocations() {
+		try {
+			return AllocationCounter.isSupported();
+		} catch (LinkageError e) {
+			// Not a HotSpot JVM, com.sun.management is missing
+			return false;
+		}
+	}
+
+	public int getCol() {
+		return col;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public long getScoringNanos() {
+		return scoringNanos;
+	}
+
+	public long getFilteringNanos() {
+		return filteringNanos;
+	}
+
+	public long getSeamNanos() {
+		return seamNanos;
+	}
+
+	public long getCopyNanos() {
+		return copyNanos;
+	}
+
+	/**
+	 * @return the number of candidate patches whose distance was computed
+	 */
+	public long getCandidatesScanned() {
+		return candidatesScanned;
+	}
+
+	/**
+	 * @return the number of candidate patches the choice was made from
+	 */
+	public long getCandidatesWithinTolerance() {
+		return candidatesWithinTolerance;
+	}
+
+	/**
+	 * @return the bytes allocated on the java heap by the thread that placed
+	 *         the cell, or -1 if the JVM does not count them. Work done by
+	 *         other threads, like the bands of a parallel matcher, is not
+	 *         included.
+	 */
+	public long getBytesAllocated() {
+		return bytesAllocated;
+	}
+
+	/**
+	 * @return the metrics as a JSON object
+	 */
+	public String toJson() {
+		return "{\"col\":" + col + ",\"row\":" + row + ",\"scoringNanos\":"
+				+ scoringNanos + ",\"filteringNanos\":" + filteringNanos
+				+ ",\"seamNanos\":" + seamNanos + ",\"copyNanos\":" + copyNanos
+				+ ",\"candidatesScanned\":" + candidatesScanned
+				+ ",\"candidatesWithinTolerance\":"
+				+ candidatesWithinTolerance + ",\"bytesAllocated\":"
+				+ bytesAllocated + "}";
+	}
+
+	/**
+	 * The only code that refers to the HotSpot specific bean. It is loaded
+	 * when first used, so a JVM without it fails there and not when
+	 * CellMetrics is loaded.
+	 */
+	private static class AllocationCounter {
+		static boolean isSupported() {
+			return THREADS instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) THREADS)
+							.isThreadAllocatedMemorySupported();
+		}
+
+		static long allocatedBytes() {
+			return ((com.sun.management.ThreadMXBean) THREADS)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+	}
+}
@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * A texture stored already decoded, with the squared integral image the
+ * {@link TemplateOverlapMatcher} needs. It is compiled once from an image
+ * file and memory mapped when used, so loading it does not decode anything
+ * and does not compute the integral image again.
+ *
+ * Loading still copies and computes the rest. The pixels are copied out of
+ * the mapping into a java array and from there into the texture image. The
+ * integral image is copied into the matcher. The centered float planes of
+ * the matcher are not stored: they are computed again from the pixels on
+ * every load.
+ *
+ * The file is little endian: a header of five ints (magic, version, rows,
+ * cols, channels), the interleaved 8 bit pixels row by row, padding up to a
+ * multiple of 8 bytes and the (rows+1) x (cols+1) x channels doubles of the
+ * squared integral images of the channels, interleaved. The integral image
+ * does not depend on the patch size, so one file serves any patch and overlap
+ * size.
+ */
+public class CompiledTexture {
+	private static final int MAGIC = 0x49515458;
+	/**
+	 * Version 2 stores the integral image of every channel, version 1 only
+	 * had the first one
+	 */
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 24;
+	/**
+	 * Size (bytes) of the buffer the file is written through
+	 */
+	private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+	private int rows;
+	private int cols;
+	private int channels;
+	private ByteBuffer pixels;
+	private DoubleBuffer sqIntegral;
+
+	/**
+	 * Load the OpenCV system library
+	 */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private CompiledTexture(int rows, int cols, int channels,
+			ByteBuffer pixels, DoubleBuffer sqIntegral) {
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		this.pixels = pixels;
+		this.sqIntegral = sqIntegral;
+	}
+
+	/**
+	 * This method decodes an image file and compiles it.
+	 *
+	 * @param textureFile
+	 * @param file
+	 *            Where the compiled texture is written
+	 * @throws IOException
+	 *             If the image cannot be read or the file written
+	 */
+	public static void compile(File textureFile, File file) throws IOException {
+		Mat textureImage = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		if (textureImage.empty()) {
+			throw new IOException("Cannot read texture " + textureFile);
+		}
+		try {
+			compile(textureImage, file);
+		} finally {
+			textureImage.release();
+		}
+	}
+
+	/**
+	 * This method compiles a decoded texture. The file is written next to
+	 * its final place and renamed, so a reader never maps half of it. It is
+	 * written through a buffer and not mapped, as a mapped file cannot be
+	 * renamed on Windows until the mapping is garbage collected.
+	 *
+	 * @param textureImage
+	 * @param file
+	 *            Where the compiled texture is written
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	public static void compile(Mat textureImage, File file) throws IOException {
+		if (textureImage.depth() != CvType.CV_8U) {
+			throw new IllegalArgumentException("Texture must be 8 bit");
+		}
+		int rows = textureImage.rows();
+		int cols = textureImage.cols();
+		int channels = textureImage.channels();
+		int stride = cols * channels;
+		long integralOffset = integralOffset((long) rows * stride);
+		long size = integralOffset + (rows + 1L) * (cols + 1L) * channels * 8;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Texture is too big to map");
+		}
+		double[] sqIntegral = TemplateOverlapMatcher
+				.squaredIntegral(textureImage);
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			try (RandomAccessFile out = new RandomAccessFile(temp, "rw");
+					FileChannel channel = out.getChannel()) {
+				ByteBuffer buffer = ByteBuffer.allocate(
+						Math.max(WRITE_BUFFER_BYTES, stride)).order(
+						ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols)
+						.putInt(channels);
+				buffer.position(HEADER_BYTES);
+
+				byte[] row = new byte[stride];
+				for (int r = 0; r < rows; r++) {
+					if (buffer.remaining() < stride) {
+						write(channel, buffer);
+					}
+					textureImage.get(r, 0, row);
+					buffer.put(row);
+				}
+
+				// The padding before the integral image is left as zeros
+				if (buffer.remaining() < 8) {
+					write(channel, buffer);
+				}
+				long padding = integralOffset - (HEADER_BYTES + (long) rows
+						* stride);
+				buffer.position(buffer.position() + (int) padding);
+				for (double value : sqIntegral) {
+					if (buffer.remaining() < 8) {
+						write(channel, buffer);
+					}
+					buffer.putDouble(value);
+				}
+				write(channel, buffer);
+				if (channel.size() != size) {
+					throw new IOException("Wrote " + channel.size()
+							+ " bytes of compiled texture instead of " + size);
+				}
+				channel.force(true);
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * This method writes the content of a buffer and clears it. Its unused
+	 * bytes are zeros.
+	 *
+	 * @param channel
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		Arrays.fill(buffer.array(), (byte) 0);
+	}
+
+	/**
+	 * This method maps a compiled texture. Nothing is read until the pixels
+	 * or the integral image are used.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 *             If the file cannot be mapped or is not a compiled texture
+	 */
+	public static CompiledTexture map(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r");
+				FileChannel channel = in.getChannel()) {
+			if (channel.size() < HEADER_BYTES
+					|| channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Not a compiled texture " + file);
+			}
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a compiled texture " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported compiled texture version "
+					+ buffer.getInt(4) + " in " + file);
+		}
+		int rows = buffer.getInt(8);
+		int cols = buffer.getInt(12);
+		int channels = buffer.getInt(16);
+		long pixelBytes = (long) rows * cols * channels;
+		long integralOffset = integralOffset(pixelBytes);
+		if (rows <= 0 || cols <= 0 || channels <= 0
+				|| integralOffset + (rows + 1L) * (cols + 1L) * channels
+						* 8 != buffer.capacity()) {
+			throw new IOException("Corrupt compiled texture " + file);
+		}
+
+		buffer.position(HEADER_BYTES).limit((int) (HEADER_BYTES + pixelBytes));
+		ByteBuffer pixels = buffer.slice();
+		buffer.limit(buffer.capacity()).position((int) integralOffset);
+		DoubleBuffer sqIntegral = buffer.slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		return new CompiledTexture(rows, cols, channels, pixels, sqIntegral);
+	}
+
+	private static long integralOffset(long pixelBytes) {
+		return (HEADER_BYTES + pixelBytes + 7) & ~7L;
+	}
+
+	/**
+	 * This method copies the pixels out of the mapped file in a single bulk
+	 * read, interleaved row by row as {@link ImageQuilter#texturePixels(Mat)}
+	 * gives them.
+	 *
+	 * @return
+	 */
+	public byte[] pixels() {
+		byte[] copy = new byte[rows * cols * channels];
+		pixels.duplicate().get(copy);
+		return copy;
+	}
+
+	/**
+	 * This method copies the pixels in a new image, which the caller
+	 * releases.
+	 *
+	 * @return
+	 */
+	public Mat toMat() {
+		return toMat(pixels());
+	}
+
+	/**
+	 * This method copies pixels given by {@link #pixels()} in a new image in
+	 * a single call, which the caller releases.
+	 *
+	 * @param pixels
+	 * @return
+	 */
+	public Mat toMat(byte[] pixels) {
+		Mat textureImage = new Mat(rows, cols, CvType.CV_8UC(channels));
+		textureImage.put(0, 0, pixels);
+		return textureImage;
+	}
+
+	/**
+	 * @return the squared integral image, backed by the mapped file
+	 */
+	public DoubleBuffer squaredIntegral() {
+		return sqIntegral.duplicate();
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Compiles a texture: CompiledTexture texture.jpg texture.iqt
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: CompiledTexture <texture> <output>");
+			System.exit(1);
+		}
+		compile(new File(args[0]), new File(args[1]));
+	}
+}
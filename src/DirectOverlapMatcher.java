@@ -0,0 +1,115 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * The simplest matcher, which the others are checked against: it walks every
+ * candidate of the texture and computes the {@link OverlapSsd} of each one.
+ * The texture is copied once and the output cell once per call, so nothing
+ * is allocated per candidate.
+ */
+public class DirectOverlapMatcher implements OverlapMatcher {
+	private Mat textureImage;
+	/**
+	 * The texture, interleaved
+	 */
+	private byte[] texture;
+	private int textureCols;
+	private int channels;
+	private int patchSize;
+	private int overlapSize;
+	private ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public DirectOverlapMatcher(Mat textureImage, int patchSize,
+			int overlapSize) {
+		this.textureImage = textureImage;
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.textureCols = textureImage.cols();
+		this.channels = textureImage.channels();
+
+		texture = ImageQuilter.texturePixels(textureImage);
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0,
+				candidateRows());
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+
+		double best = Double.MAX_VALUE;
+		Point bestloc = null;
+
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		// The cell may be cropped by the edge of the output
+		int width = outputCell.cols();
+		int height = outputCell.rows();
+		int cellStride = patchSize * channels;
+		int textureStride = textureCols * channels;
+		OverlapSsd.readCell(outputCell, workspace.row, workspace.cell,
+				cellStride);
+
+		// loop over the possible input patch row locations
+		for (int y = rowStart; y < rowEnd; y++) {
+			for (int x = 0; x < textureCols - patchSize; x++) {
+				double sum = OverlapSsd.overlapSsd(workspace.cell, cellStride,
+						texture, textureStride, y * textureStride + x
+								* channels, width, height, overlapSize,
+						channels, cellCol != 0, cellRow != 0);
+
+				// save the total and compare to the best yet
+				dists[y][x] = sum;
+				if (sum < best) {
+					best = sum;
+					bestloc = new Point(x, y);
+				}
+			}
+		}
+
+		workspaces.add(workspace);
+
+		return bestloc;
+	}
+
+	@Override
+	public int candidateRows() {
+		return textureImage.rows() - patchSize;
+	}
+
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		return 0;
+	}
+
+	@Override
+	public void release() {
+		// Nothing native is held, only the pooled java buffers
+		workspaces.clear();
+	}
+
+	/**
+	 * Buffers reused for every candidate scored by one call. Calls running at
+	 * the same time take different workspaces.
+	 */
+	private class Workspace {
+		private byte[] cell = new byte[patchSize * patchSize * channels];
+		private byte[] row = new byte[patchSize * channels];
+	}
+}
@@ -1,5 +1,15 @@
 import java.io.File;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
@@ -7,17 +17,40 @@ import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
 import org.opencv.imgcodecs.Imgcodecs;
 
-public class ImageQuilter {
+public class ImageQuilter implements AutoCloseable {
 	private Mat textureImage;
+	/**
+	 * The pixels of textureImage, read once for the seam cuts, possibly
+	 * shared with other instances
+	 */
+	private byte[] texturePixels;
 	private int patchSize;
 	private int overlapSize;
 	private boolean allowHorizontalPaths;
 	private double pathCostWeight;
+	private OverlapMatcher matcher;
+	private PatchIndex index;
+	private boolean ownsMatcher;
+	private boolean ownsTexture;
+	private long seed = new Random().nextLong();
+	private double tolerance = DEFAULT_TOLERANCE;
+	private int pathCostCandidates = DEFAULT_PATH_COST_CANDIDATES;
+	/**
+	 * Number of random jumps of the coherent search, negative when the
+	 * coherent search is disabled
+	 */
+	private int coherentJumps = -1;
+	private double maxCoherentError;
+	private SynthesisListener listener;
+	private ProgressSink progressSink;
 
 	public static int DEFAULT_PATCH_SIZE = 36;
 	public static int DEFAULT_OVERLAP_SIZE = 6;
+	public static double DEFAULT_TOLERANCE = 1.1;
+	public static int DEFAULT_PATH_COST_CANDIDATES = 16;
 
 	/**
 	 * Load the OpenCV system library
@@ -40,287 +73,1296 @@ public class ImageQuilter {
 	 * @param pathCostWeight
 	 *            The SSD for the overlap region and the min SSD path cost have
 	 *            the same range. The total cost is then pathCost*pathCostWeight
-	 *            plus ssd*(1-pathCostWeight).
+	 *            plus ssd*(1-pathCostWeight). It is between 0 and 1, with 0
+	 *            the seams are not used to choose the patches.
 	 */
 	public ImageQuilter(Mat textureImage, int patchsize, int overlapsize,
 			boolean allowHorizontalPaths, double pathCostWeight) {
+		this(textureImage, patchsize, overlapsize, allowHorizontalPaths,
+				pathCostWeight, 1);
+	}
+
+	/**
+	 * Sets up the algorithm.
+	 * 
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param allowHorizontalPaths
+	 *            When finding min paths, can the path travel along a stage?
+	 * @param pathCostWeight
+	 *            The SSD for the overlap region and the min SSD path cost have
+	 *            the same range. The total cost is then pathCost*pathCostWeight
+	 *            plus ssd*(1-pathCostWeight). It is between 0 and 1, with 0
+	 *            the seams are not used to choose the patches.
+	 * @param parallelism
+	 *            Number of threads used to score the candidate patches. When
+	 *            it is greater than 1 the texture rows are split in bands that
+	 *            are scored in a fork-join pool.
+	 */
+	public ImageQuilter(Mat textureImage, int patchsize, int overlapsize,
+			boolean allowHorizontalPaths, double pathCostWeight,
+			int parallelism) {
+		this(textureImage, patchsize, overlapsize, allowHorizontalPaths,
+				pathCostWeight, parallelism, null);
+	}
+
+	/**
+	 * Sets up the algorithm.
+	 * 
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param allowHorizontalPaths
+	 *            When finding min paths, can the path travel along a stage?
+	 * @param pathCostWeight
+	 *            The SSD for the overlap region and the min SSD path cost have
+	 *            the same range. The total cost is then pathCost*pathCostWeight
+	 *            plus ssd*(1-pathCostWeight). It is between 0 and 1, with 0
+	 *            the seams are not used to choose the patches.
+	 * @param parallelism
+	 *            Number of threads used to score the candidate patches. When
+	 *            it is greater than 1 the texture rows are split in bands that
+	 *            are scored in a fork-join pool.
+	 * @param index
+	 *            An index of the candidate patches of textureImage built with
+	 *            the same patch and overlap sizes. When it is not null the
+	 *            candidates are looked up in it instead of scanning the whole
+	 *            texture.
+	 */
+	public ImageQuilter(Mat textureImage, int patchsize, int overlapsize,
+			boolean allowHorizontalPaths, double pathCostWeight,
+			int parallelism, PatchIndex index) {
+		this(textureImage, patchsize, overlapsize, allowHorizontalPaths,
+				pathCostWeight, createMatcher(textureImage, patchsize,
+						overlapsize, parallelism), index);
+		this.ownsMatcher = true;
+	}
+
+	/**
+	 * Sets up the algorithm with a matcher prepared beforehand, so that
+	 * several instances can share the preprocessing of the same texture. The
+	 * matcher is not released by {@link #close()}.
+	 * 
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param allowHorizontalPaths
+	 *            When finding min paths, can the path travel along a stage?
+	 * @param pathCostWeight
+	 *            The SSD for the overlap region and the min SSD path cost have
+	 *            the same range. The total cost is then pathCost*pathCostWeight
+	 *            plus ssd*(1-pathCostWeight). It is between 0 and 1, with 0
+	 *            the seams are not used to choose the patches.
+	 * @param matcher
+	 *            A matcher of textureImage with the same patch and overlap
+	 *            sizes.
+	 * @param index
+	 *            An index of the candidate patches of textureImage, or null to
+	 *            scan the whole texture.
+	 */
+	public ImageQuilter(Mat textureImage, int patchsize, int overlapsize,
+			boolean allowHorizontalPaths, double pathCostWeight,
+			OverlapMatcher matcher, PatchIndex index) {
+		this(textureImage, texturePixels(textureImage), patchsize,
+				overlapsize, allowHorizontalPaths, pathCostWeight, matcher,
+				index);
+	}
+
+	/**
+	 * Sets up the algorithm with a matcher and the pixels of the texture
+	 * prepared beforehand, so that several instances can share them. The
+	 * matcher is not released by {@link #close()}.
+	 * 
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param texturePixels
+	 *            The pixels of textureImage given by
+	 *            {@link #texturePixels(Mat)}, they are not modified
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param allowHorizontalPaths
+	 *            When finding min paths, can the path travel along a stage?
+	 * @param pathCostWeight
+	 *            Between 0 and 1, see
+	 *            {@link #ImageQuilter(Mat, int, int, boolean, double)}
+	 * @param matcher
+	 *            A matcher of textureImage with the same patch and overlap
+	 *            sizes.
+	 * @param index
+	 *            An index of the candidate patches of textureImage, or null to
+	 *            scan the whole texture.
+	 */
+	public ImageQuilter(Mat textureImage, byte[] texturePixels,
+			int patchsize, int overlapsize, boolean allowHorizontalPaths,
+			double pathCostWeight, OverlapMatcher matcher, PatchIndex index) {
+		if (texturePixels.length != textureImage.total()
+				* textureImage.elemSize()) {
+			throw new IllegalArgumentException(
+					"Texture pixels do not match the texture size");
+		}
 		this.textureImage = textureImage;
+		this.texturePixels = texturePixels;
 		this.overlapSize = overlapsize;
 		this.patchSize = patchsize;
 
+		if (pathCostWeight < 0 || pathCostWeight > 1) {
+			throw new IllegalArgumentException(
+					"Path cost weight must be between 0 and 1");
+		}
 		this.allowHorizontalPaths = allowHorizontalPaths;
 		this.pathCostWeight = pathCostWeight;
+
+		this.matcher = matcher;
+		this.index = index;
+		checkTolerance(tolerance);
 	}
 
 	/**
-	 * This method synthesizes a new texture image with the given dimensions.
+	 * This method copies the pixels of a texture in the layout the seam cuts
+	 * and the coherent search read them from, interleaved row by row.
+	 * 
+	 * @param textureImage
+	 * @return
 	 */
-	public Mat synthesize(int outWidth, int outHeight) {
+	static byte[] texturePixels(Mat textureImage) {
+		int stride = (int) (textureImage.cols() * textureImage.elemSize());
+		byte[] pixels = new byte[textureImage.rows() * stride];
+		if (textureImage.isContinuous()) {
+			textureImage.get(0, 0, pixels);
+			return pixels;
+		}
+		// A submat is read one row at a time
+		byte[] row = new byte[stride];
+		for (int r = 0; r < textureImage.rows(); r++) {
+			textureImage.get(r, 0, row);
+			System.arraycopy(row, 0, pixels, r * stride, stride);
+		}
+		return pixels;
+	}
 
-		if (outWidth < patchSize || outHeight < patchSize) {
-			throw new IllegalArgumentException("Output size is too small");
+	/**
+	 * Sets up the algorithm on a texture compiled by {@link CompiledTexture}.
+	 * The file is memory mapped, so the texture is not decoded and the
+	 * squared integral image of the matcher is not computed again. The pixels
+	 * are read from the mapping once, into the working copy of the seam cuts,
+	 * and the texture image is filled from it in a single call. The texture
+	 * image and the matcher are released by {@link #close()}.
+	 * 
+	 * @param compiledTexture
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param allowHorizontalPaths
+	 *            When finding min paths, can the path travel along a stage?
+	 * @param pathCostWeight
+	 *            Between 0 and 1, see
+	 *            {@link #ImageQuilter(Mat, int, int, boolean, double)}
+	 * @return
+	 * @throws IOException
+	 *             If the file cannot be mapped or is not a compiled texture
+	 */
+	public static ImageQuilter open(File compiledTexture, int patchSize,
+			int overlapSize, boolean allowHorizontalPaths,
+			double pathCostWeight) throws IOException {
+		CompiledTexture compiled = CompiledTexture.map(compiledTexture);
+		byte[] pixels = compiled.pixels();
+		Mat textureImage = compiled.toMat(pixels);
+		OverlapMatcher matcher = null;
+		try {
+			matcher = new TemplateOverlapMatcher(textureImage,
+					compiled.squaredIntegral(), patchSize, overlapSize);
+			ImageQuilter quilter = new ImageQuilter(textureImage, pixels,
+					patchSize, overlapSize, allowHorizontalPaths,
+					pathCostWeight, matcher, null);
+			quilter.ownsMatcher = true;
+			quilter.ownsTexture = true;
+			return quilter;
+		} catch (RuntimeException e) {
+			if (matcher != null) {
+				matcher.release();
+			}
+			textureImage.release();
+			throw e;
 		}
+	}
+
+	/**
+	 * This method creates the matcher used when none is given.
+	 * 
+	 * @param textureImage
+	 * @param patchSize
+	 * @param overlapSize
+	 * @param parallelism
+	 * @return
+	 */
+	static OverlapMatcher createMatcher(Mat textureImage, int patchSize,
+			int overlapSize, int parallelism) {
+		OverlapMatcher matcher = new TemplateOverlapMatcher(textureImage,
+				patchSize, overlapSize);
+		if (parallelism > 1) {
+			matcher = new ParallelOverlapMatcher(matcher, parallelism);
+		}
+		return matcher;
+	}
+
+	/**
+	 * Sets the seed of the random choices, so that a synthesis with the same
+	 * seed, texture and parameters gives the same image. Every output cell
+	 * draws from its own stream derived from the seed and its position, so
+	 * the sequential, streaming and wavefront syntheses give the same image
+	 * too. Without a seed a random one is used.
+	 * 
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getPatchSize() {
+		return patchSize;
+	}
+
+	public int getOverlapSize() {
+		return overlapSize;
+	}
 
-		// Calculate the optimal width and height
-		int patchCols = Math.round((float) (outWidth - patchSize)
-				/ (patchSize - overlapSize));
-		int patchRows = Math.round((float) (outHeight - patchSize)
-				/ (patchSize - overlapSize));
-		int okWidth = patchCols * (patchSize - overlapSize) + patchSize;
-		int okHeight = patchRows * (patchSize - overlapSize) + patchSize;
-		patchCols++;
-		patchRows++;
+	/**
+	 * This method derives the seed of the random stream of an output cell
+	 * with the SplitMix64 finalizer, so that nearby cells get unrelated
+	 * streams.
+	 * 
+	 * @param c
+	 *            Column (pixels) of the cell on the whole output
+	 * @param r
+	 *            Row (pixels) of the cell on the whole output
+	 * @return
+	 */
+	private long cellSeed(int c, int r) {
+		long cell = ((long) r << 32) | (c & 0xffffffffL);
+		long z = seed + 0x9E3779B97F4A7C15L * (cell + 1);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
 
-		// Check if the output size is acceptable and fix it if it is not the
-		// case
-		if (okWidth != outWidth || okHeight != outHeight) {
-			System.out.println("Your output size requires partial"
-					+ " patches that are currently" + " not supported.");
-			outWidth = okWidth;
-			outHeight = okHeight;
-			System.out.println("Using width = " + outWidth + " and  height = "
-					+ outHeight + " instead.");
+	/**
+	 * Sets how far from the best overlap distance a patch may be to be
+	 * chosen. Every input patch whose distance is not bigger than tolerance
+	 * times the best one has the same chance of being chosen.
+	 * 
+	 * @param tolerance
+	 *            At least 1, the default is 1.1. It may not be bigger than the
+	 *            one of a {@link BoundedOverlapMatcher}.
+	 */
+	public void setTolerance(double tolerance) {
+		if (tolerance < 1) {
+			throw new IllegalArgumentException("Tolerance must be at least 1");
 		}
+		checkTolerance(tolerance);
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * This method checks that the matcher scores exactly every candidate
+	 * within the given tolerance. A bounded matcher abandons the ones beyond
+	 * its own tolerance.
+	 * 
+	 * @param tolerance
+	 */
+	private void checkTolerance(double tolerance) {
+		OverlapMatcher scorer = matcher;
+		if (scorer instanceof ParallelOverlapMatcher) {
+			scorer = ((ParallelOverlapMatcher) scorer).getMatcher();
+		}
+		if (scorer instanceof BoundedOverlapMatcher
+				&& ((BoundedOverlapMatcher) scorer).getTolerance() < tolerance) {
+			throw new IllegalArgumentException("Tolerance " + tolerance
+					+ " is bigger than the one of the bounded matcher");
+		}
+	}
+
+	/**
+	 * Sets how many candidates are ranked again with the path cost when the
+	 * path cost weight is not 0. The ones with the lowest SSD among those
+	 * within tolerance are taken, so the cost of the seams grows with this
+	 * number and not with the texture size.
+	 * 
+	 * @param pathCostCandidates
+	 *            At least 1, the default is 16
+	 */
+	public void setPathCostCandidates(int pathCostCandidates) {
+		if (pathCostCandidates < 1) {
+			throw new IllegalArgumentException(
+					"Path cost candidates must be positive");
+		}
+		this.pathCostCandidates = pathCostCandidates;
+	}
+
+	/**
+	 * Enables the coherent search. A cell first scores only the patches that
+	 * continue the ones of its left and top neighbours in the texture, plus
+	 * some patches taken at random, and chooses among those within tolerance
+	 * of the best one. The texture is searched in full, by the matcher or the
+	 * index, only when the best of them has a mean squared difference per
+	 * overlap value above maxError. A cell then costs about the same whatever
+	 * the texture size, as long as the texture keeps continuing well.
+	 * 
+	 * @param randomJumps
+	 *            Number of random patches scored besides the coherent ones
+	 * @param maxError
+	 *            Mean squared difference of the best coherent patch, per
+	 *            pixel and channel of the overlaps, above which the full
+	 *            search is done
+	 */
+	public void setCoherence(int randomJumps, double maxError) {
+		if (randomJumps < 0) {
+			throw new IllegalArgumentException(
+					"Random jumps must not be negative");
+		}
+		if (!(maxError >= 0)) {
+			throw new IllegalArgumentException(
+					"Max coherent error must not be negative");
+		}
+		this.coherentJumps = randomJumps;
+		this.maxCoherentError = maxError;
+	}
+
+	/**
+	 * Disables the coherent search, every cell searches the whole texture.
+	 * This is the default.
+	 */
+	public void disableCoherence() {
+		this.coherentJumps = -1;
+	}
+
+	/**
+	 * Sets a listener that receives the timings and counters of every placed
+	 * cell, or null to stop reporting them.
+	 * 
+	 * @param listener
+	 */
+	public void setListener(SynthesisListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets a sink that receives the output while it is synthesized, or null
+	 * (the default) to not report the progress. The streaming synthesis
+	 * reports nothing, its rows already go to a {@link QuiltSink}, and
+	 * neither do the tiles of {@link #synthesizeTile(Rect, Mat, Mat)}, see
+	 * {@link TiledQuilter#setProgressSink(ProgressSink)}.
+	 * 
+	 * @param progressSink
+	 */
+	public void setProgressSink(ProgressSink progressSink) {
+		this.progressSink = progressSink;
+	}
+
+	/**
+	 * This method synthesizes a new texture image with the given dimensions.
+	 * The cells on the right and bottom edges are cropped when the size is
+	 * not made of whole patches.
+	 */
+	public Mat synthesize(int outWidth, int outHeight) {
+		checkOutputSize(outWidth, outHeight);
 
 		// Create the output image
-		Mat output = Mat.zeros(okHeight, okWidth, CvType.CV_8UC3);
+		Mat output = Mat.zeros(outHeight, outWidth, CvType.CV_8UC3);
 		
 		// Get the first patch to start the process
 		selectFirstRandomPatch(output);
-		Imgcodecs.imwrite("output/process-1.jpg", output);
+		int cellCount = cellsAlong(outWidth) * cellsAlong(outHeight);
 
 		// Save the best set of distances between patches
-		double dists[][] = new double[textureImage
-				.rows() - patchSize][textureImage.cols() - patchSize];
-		//
-		for (int r = 0; (r + patchSize - overlapSize) < okWidth; r += patchSize - overlapSize) {
-			for (int c = 0; (c + patchSize - overlapSize) < okHeight; c += patchSize - overlapSize) {
-				// Get the output cell to be analyzed
-				Point outputLoc = new Point(c,r);
-				Mat outputCell = output.submat(new Rect(c, r, patchSize,
-						patchSize));
-
-				// Get the all patches of source texture image and their differences 
-				Point bestLoc = calcDists(dists, outputCell, c, r);
-				double bestval = dists[(int)bestLoc.y][(int)bestLoc.x];
-				
-				
-				// Filter the ones that satisfy the overlap constraints
-				double threshold = bestval*1.1;
-				LinkedList<Point> loclist = getBestOverlaps(dists, threshold);
-				int choice = (int) (Math.random() * loclist.size());
-				Point loc = loclist.get(choice);
-				
-				// Fill the output with new data
-				fillPatch(outputCell, outputLoc, loc);
-			}
+		CellScratch scratch = new CellScratch();
+		placeCells(output, 0, 0, 0, 0, outWidth, outHeight, scratch,
+				progressSink, 0, cellCount);
+		scratch.release();
+
+		return output;
+	}
+
+	/**
+	 * This method extends a synthesized texture to the right and down. The
+	 * new cells overlap its right and bottom edges, which constrain them like
+	 * the cells placed before do in {@link #synthesize(int, int)}, so only
+	 * those overlaps may change on the far side of the seams. Only the new
+	 * area is synthesized: first the cells on the right of the texture, as
+	 * high as it is, then the rows of cells below it, as wide as the new
+	 * output.
+	 * 
+	 * @param existing
+	 *            A texture synthesized from the same texture image (CV_8UC3),
+	 *            it is not modified
+	 * @param outWidth
+	 *            At least the width of existing
+	 * @param outHeight
+	 *            At least the height of existing
+	 * @return a new image with existing in its top left corner
+	 */
+	public Mat extend(Mat existing, int outWidth, int outHeight) {
+		int oldWidth = existing.cols();
+		int oldHeight = existing.rows();
+		if (existing.type() != CvType.CV_8UC3) {
+			throw new IllegalArgumentException(
+					"Texture to extend must be CV_8UC3");
 		}
+		if (outWidth < oldWidth || outHeight < oldHeight) {
+			throw new IllegalArgumentException(
+					"Output size is smaller than the texture to extend");
+		}
+		if ((outWidth > oldWidth || outHeight > oldHeight)
+				&& (oldWidth <= overlapSize || oldHeight <= overlapSize)) {
+			throw new IllegalArgumentException(
+					"Texture to extend is smaller than the overlap");
+		}
+
+		Mat output = Mat.zeros(outHeight, outWidth, CvType.CV_8UC3);
+		Mat old = output.submat(new Rect(0, 0, oldWidth, oldHeight));
+		existing.copyTo(old);
+		old.release();
+
+		// The new cells start one overlap inside the texture
+		int right = oldWidth - overlapSize;
+		int below = oldHeight - overlapSize;
+		int rightCells = outWidth > oldWidth ? cellsAlong(outWidth - right)
+				* cellsAlong(oldHeight) : 0;
+		int belowCells = outHeight > oldHeight ? cellsAlong(outHeight - below)
+				* cellsAlong(outWidth) : 0;
+		int cellCount = rightCells + belowCells;
+
+		CellScratch scratch = new CellScratch();
+		int cellsPlaced = 0;
+		if (rightCells > 0) {
+			cellsPlaced = placeCells(output, 0, 0, right, 0, outWidth,
+					oldHeight, scratch, progressSink, cellsPlaced, cellCount);
+		}
+		if (belowCells > 0) {
+			placeCells(output, 0, 0, 0, below, outWidth, outHeight, scratch,
+					progressSink, cellsPlaced, cellCount);
+		}
+		scratch.release();
 
-		// Write the image on disk
-		Imgcodecs.imwrite("output/step-2.jpg", output);
 		return output;
 	}
-	
-	
 
 	/**
-	 * This method selects a random patch from the source texture and put it in
-	 * top left corner of an output image
+	 * This method synthesizes a tile of a bigger output on its own, for
+	 * {@link TileWorker}. A tile that is not on the left (top) edge of the
+	 * output starts one overlap inside the tile on its left (above), whose
+	 * right (bottom) border strip is given, and its cells are cut against it
+	 * like against the cells of the same tile. The cells are the ones the
+	 * whole output would have at the same places, with the same random
+	 * streams, so a tile does not depend on the worker that synthesizes it.
 	 * 
-	 * @param output
-	 *            The output image to be synthesized
+	 * @param region
+	 *            The tile on the whole output, which ends at its right and
+	 *            bottom edges
+	 * @param leftStrip
+	 *            The overlapSize columns at the left of the tile (CV_8UC3),
+	 *            null if the tile is on the left edge of the output
+	 * @param topStrip
+	 *            The overlapSize rows at the top of the tile (CV_8UC3), null
+	 *            if the tile is on the top edge of the output
+	 * @return the pixels of the tile
 	 */
-	private void selectFirstRandomPatch(Mat output) {
-		// Choose a random place to get the first patch
-		int x = (int) (Math.random() * (textureImage.cols() - patchSize));
-		int y = (int) (Math.random() * (textureImage.rows() - patchSize));
+	public Mat synthesizeTile(Rect region, Mat leftStrip, Mat topStrip) {
+		checkOutputSize(region.width, region.height);
+		if ((region.x != 0) != (leftStrip != null)
+				|| (region.y != 0) != (topStrip != null)) {
+			throw new IllegalArgumentException(
+					"Only tiles inside the output have border strips");
+		}
+		if ((leftStrip != null && region.width <= overlapSize)
+				|| (topStrip != null && region.height <= overlapSize)) {
+			throw new IllegalArgumentException(
+					"Tile is smaller than the overlap");
+		}
+		if (leftStrip != null
+				&& !isStrip(leftStrip, region.height, overlapSize)) {
+			throw new IllegalArgumentException(
+					"Left strip does not fit the tile");
+		}
+		if (topStrip != null && !isStrip(topStrip, overlapSize, region.width)) {
+			throw new IllegalArgumentException(
+					"Top strip does not fit the tile");
+		}
 
-		// Get a crop of the source texture image
-		Rect roi = new Rect(x, y, patchSize, patchSize);
-		Mat cropped = new Mat(textureImage, roi);
+		Mat tile = Mat.zeros(region.height, region.width, CvType.CV_8UC3);
+		if (leftStrip != null) {
+			Mat left = tile.submat(new Rect(0, 0, overlapSize, region.height));
+			leftStrip.copyTo(left);
+			left.release();
+		}
+		if (topStrip != null) {
+			Mat top = tile.submat(new Rect(0, 0, region.width, overlapSize));
+			topStrip.copyTo(top);
+			top.release();
+		}
 
-		Mat firstCell = output.submat(new Rect(0, 0, patchSize, patchSize));
+		// The workers of a tiled synthesis share the quilter, so a tile does
+		// not report its progress, the coordinator does
+		CellScratch scratch = new CellScratch();
+		placeCells(tile, region.x, region.y, region.x, region.y, region.x
+				+ region.width, region.y + region.height, scratch, null, 0, 0);
+		scratch.release();
 
-		// Replace the output cell with the selected source patch
-		cropped.copyTo(firstCell);
+		return tile;
+	}
+
+	private static boolean isStrip(Mat strip, int rows, int cols) {
+		return strip.type() == CvType.CV_8UC3 && strip.rows() == rows
+				&& strip.cols() == cols;
 	}
 
 	/**
-	 * This method calculates the distance (SSD) between the overlap part of
-	 * outPatch and the corresponding parts of the possible input patches. If
-	 * the pathCostWeight extension has been activated, this will also calculate
-	 * the path cost and weight the distance based on that cost. This returns
-	 * the array index of the smallest distance found.
+	 * This method places the cells of a region of the output in raster
+	 * order. A cell is placed every patchSize - overlapSize pixels from the
+	 * top left corner of the region and cropped by its right and bottom
+	 * edges.
 	 * 
-	 * @param dists
-	 *            This will be filled in. The return value in dists[y][x] will
-	 *            be the SSD between an input patch with corner (x,y) and the
-	 *            given output patch.
-	 * @param outputCell
-	 * 			The output cell to be analyzed
-	 * @param cellCol
-	 * 			Current column of output cell on the whole output
-	 * @param cellRow
-	 * 			Current row of output cell on the whole output
+	 * @param output
+	 * @param originX
+	 *            Column (pixels) of the whole output where output starts
+	 * @param originY
+	 *            Row (pixels) of the whole output where output starts
+	 * @param left
+	 *            Column (pixels) of the first cell
+	 * @param top
+	 *            Row (pixels) of the first cell
+	 * @param width
+	 *            Column (pixels) where the region ends
+	 * @param height
+	 *            Row (pixels) where the region ends
+	 * @param scratch
+	 * @param sink
+	 *            Receives the progress, or null
+	 * @param cellsPlaced
+	 *            Number of cells placed before, for the progress
+	 * @param cellCount
+	 *            Number of cells of the whole synthesis, for the progress
+	 * @return the number of cells placed, including the ones before
 	 */
-	private Point calcDists(double[][] dists, Mat outputCell, int cellCol,
-			int cellRow) {
+	private int placeCells(Mat output, int originX, int originY, int left,
+			int top, int width, int height, CellScratch scratch,
+			ProgressSink sink, int cellsPlaced, int cellCount) {
+		int step = patchSize - overlapSize;
+		int cols = cellsAlong(width - left);
+		int rows = cellsAlong(height - top);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				int c = left + j * step;
+				int r = top + i * step;
+
+				// Get the output cell to be analyzed
+				Rect cellRect = cellRect(c, r, width, height);
+				cellRect.x -= originX;
+				cellRect.y -= originY;
+				Mat outputCell = output.submat(cellRect);
+				placeCell(outputCell, c, r, scratch);
+				outputCell.release();
+				if (sink != null) {
+					sink.cellPlaced(output, cellRect);
+					sink.progress(output, ++cellsPlaced, cellCount);
+				}
+			}
+		}
+		return cellsPlaced;
+	}
 
-		double best = Double.MAX_VALUE;
-		Point bestloc = null;
-		
 
-		// loop over the possible input patch row locations
-		for (int y = 0; y < textureImage.rows() - patchSize; y++) {
-			for (int x = 0; x < textureImage.cols() - patchSize; x++) {
-				Mat sourceCell = textureImage.submat(new Rect(x, y, patchSize,
-						patchSize));
+	/**
+	 * This method synthesizes a new texture image with the given dimensions
+	 * and streams it to a sink one band of rows at a time. Only the band of
+	 * output cells being synthesized is kept in memory, so the memory used is
+	 * proportional to the output width times the patch size.
+	 * 
+	 * @param outWidth
+	 * @param outHeight
+	 * @param sink
+	 *            Receives the finished rows from top to bottom
+	 * @throws IOException
+	 *             If the sink fails to write the rows
+	 */
+	public void synthesize(int outWidth, int outHeight, QuiltSink sink)
+			throws IOException {
 
-				double sum = 0.0;
-				
+		checkOutputSize(outWidth, outHeight);
+		int step = patchSize - overlapSize;
 
-				// Calculate ssd of left overlap
-				if (cellCol != 0) {
-					Mat leftOverlapDiff = leftOverlapDiff(outputCell, sourceCell);
-					
-					sum += Core.sumElems(leftOverlapDiff).val[0];
+		// The band holds one row of output cells
+		Mat band = Mat.zeros(Math.min(patchSize, outHeight), outWidth,
+				CvType.CV_8UC3);
+		selectFirstRandomPatch(band);
+		CellScratch scratch = new CellScratch();
+		try {
+			sink.begin(outWidth, outHeight);
+			for (int r = 0; r == 0 || r + overlapSize < outHeight; r += step) {
+				// The last band may be shorter than a patch
+				int bandHeight = Math.min(patchSize, outHeight - r);
+				for (int c = 0; c == 0 || c + overlapSize < outWidth;
+						c += step) {
+					Mat outputCell = band.submat(cellRect(c, 0, outWidth,
+							bandHeight));
+					placeCell(outputCell, c, r, scratch);
+					outputCell.release();
 				}
 
-				// Calculate ssd of top overlap
-				if (cellRow != 0) {
-					Mat topOverlapDiff = topOverlapDiff(outputCell, sourceCell);
-					
-					sum += Core.sumElems(topOverlapDiff).val[0];
+				if (r + patchSize >= outHeight) {
+					// Last band, every row is finished
+					Mat rows = band.submat(new Rect(0, 0, outWidth,
+							bandHeight));
+					sink.writeRows(rows, r);
+					rows.release();
+				} else {
+					// The bottom overlap will still be cut by the next band
+					Mat rows = band.submat(new Rect(0, 0, outWidth, step));
+					sink.writeRows(rows, r);
+					rows.release();
+					Mat overlap = band.submat(new Rect(0, step, outWidth,
+							overlapSize));
+					Mat bottom = overlap.clone();
+					overlap.release();
+					band.setTo(Scalar.all(0));
+					Mat top = band.submat(new Rect(0, 0, outWidth,
+							overlapSize));
+					bottom.copyTo(top);
+					top.release();
+					bottom.release();
 				}
+			}
+			sink.end();
+		} finally {
+			scratch.release();
+			band.release();
+		}
+	}
 
-				// save the total and compare to the best yet
-				dists[y][x] = sum;
-				if (sum < best) {
-					best = sum;
-					bestloc = new Point(x, y);
+	/**
+	 * This method synthesizes a new texture image with the given dimensions
+	 * placing several output cells at the same time. A cell overlaps the
+	 * cells at its left, above it and above it to the right, so the cells are
+	 * placed in waves: the cell at row i and column j goes in wave k*i + j,
+	 * where k is the number of cell steps a patch spans. Every cell of a wave
+	 * is independent of the others and all the cells it overlaps that come
+	 * before it in raster order are in previous waves.
+	 * 
+	 * @param outWidth
+	 * @param outHeight
+	 * @param parallelism
+	 *            Number of cells placed at the same time
+	 */
+	public Mat synthesizeWavefront(int outWidth, int outHeight,
+			int parallelism) {
+		checkOutputSize(outWidth, outHeight);
+		int step = patchSize - overlapSize;
+		int patchCols = cellsAlong(outWidth);
+		int patchRows = cellsAlong(outHeight);
+		int k = (patchSize + step - 1) / step;
+
+		final Mat output = Mat.zeros(outHeight, outWidth, CvType.CV_8UC3);
+		selectFirstRandomPatch(output);
+
+		// Every running cell takes its own scratch buffers, the sources of
+		// the placed cells are shared
+		final ConcurrentLinkedQueue<CellScratch> scratches = new ConcurrentLinkedQueue<>();
+		final ConcurrentHashMap<Long, Long> sources = new ConcurrentHashMap<>();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			int waves = k * (patchRows - 1) + patchCols;
+			int cellCount = patchRows * patchCols;
+			int cellsPlaced = 0;
+			for (int wave = 0; wave < waves; wave++) {
+				List<Callable<Void>> cells = new ArrayList<>();
+				List<Rect> cellRects = new ArrayList<>();
+				for (int i = Math.min(wave / k, patchRows - 1); i >= 0; i--) {
+					int j = wave - k * i;
+					if (j >= patchCols) {
+						break;
+					}
+					final int c = j * step;
+					final int r = i * step;
+					final Rect cellRect = cellRect(c, r, outWidth, outHeight);
+					cellRects.add(cellRect);
+					cells.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							CellScratch scratch = scratches.poll();
+							if (scratch == null) {
+								scratch = new CellScratch(sources);
+							}
+							Mat outputCell = output.submat(cellRect);
+							placeCell(outputCell, c, r, scratch);
+							outputCell.release();
+							scratches.add(scratch);
+							return null;
+						}
+					});
+				}
+
+				// Wait for the whole wave before starting the next one
+				for (Future<Void> cell : executor.invokeAll(cells)) {
+					cell.get();
+				}
+				cellsPlaced += cells.size();
+				if (progressSink != null) {
+					// Reported here so the sink is only called on this thread
+					for (Rect cellRect : cellRects) {
+						progressSink.cellPlaced(output, cellRect);
+					}
+					progressSink.progress(output, cellsPlaced, cellCount);
 				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Synthesis interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to place a cell",
+					e.getCause());
+		} finally {
+			executor.shutdown();
+			for (CellScratch scratch : scratches) {
+				scratch.release();
+			}
 		}
 
-//		// do we weight the SSD with the min cost path cost?
-//		if (pathCostWeight > 0) {
-//
-//			double cost = avgCostOfBestPath(leftoverlap, topoverlap);
-//
-//			// update the sum appropriately
-//			cost = cost / (255 * 255);
-//			sum = sum * (1 - pathCostWeight) + pathCostWeight * cost;
-//		}
+		return output;
+	}
 
-		return bestloc;
+	/**
+	 * This method checks that the requested output size can be synthesized.
+	 * Any positive size can, the cells on the right and bottom edges are
+	 * cropped to it.
+	 * 
+	 * @param outWidth
+	 * @param outHeight
+	 */
+	private void checkOutputSize(int outWidth, int outHeight) {
+		if (outWidth < 1 || outHeight < 1) {
+			throw new IllegalArgumentException("Output size is too small");
+		}
 	}
 
-	
 	/**
-	 * This method return a list of the top left points of overlaps that satisfy
-	 * the threshold difference
+	 * This method counts the output cells along a side of the output. A cell
+	 * is placed every patchSize - overlapSize pixels while it has pixels
+	 * beyond the overlap with the previous one.
 	 * 
-	 * @param vals
-	 * @param threshold
+	 * @param length
+	 *            Width or height (pixels) of the output
+	 * @return
+	 */
+	private int cellsAlong(int length) {
+		int step = patchSize - overlapSize;
+		return Math.max(1, (length - overlapSize + step - 1) / step);
+	}
+
+	/**
+	 * This method gives the region of the output covered by a cell, cropped
+	 * by the edges of the output.
+	 * 
+	 * @param c
+	 *            Column (pixels) of the cell
+	 * @param r
+	 *            Row (pixels) of the cell
+	 * @param width
+	 *            Width (pixels) of the output
+	 * @param height
+	 *            Height (pixels) of the output
 	 * @return
 	 */
-	private LinkedList<Point> getBestOverlaps(double[][] vals, double threshold){
-		LinkedList<Point> list = new LinkedList<>();
-		for(int r=0; r<vals.length; r++){
-			for(int c=0; c<vals[r].length; c++){
-				if(vals[r][c] >= 0 && vals[r][c] <=threshold){
-					list.addFirst(new Point(c, r));
+	private Rect cellRect(int c, int r, int width, int height) {
+		return new Rect(c, r, Math.min(patchSize, width - c), Math.min(
+				patchSize, height - r));
+	}
+
+	/**
+	 * This method chooses an input patch for an output cell among the ones
+	 * that satisfy the overlap constraints and copies it in the cell.
+	 * 
+	 * @param outputCell
+	 *            The output cell to be filled
+	 * @param c
+	 *            Column (pixels) of the cell on the whole output
+	 * @param r
+	 *            Row (pixels) of the cell on the whole output
+	 * @param scratch
+	 *            Buffers for the cell, not used by any other cell meanwhile
+	 */
+	private void placeCell(Mat outputCell, int c, int r, CellScratch scratch) {
+		double[][] dists = scratch.dists;
+		Candidates candidates = scratch.candidates;
+		long allocated = listener != null ? CellMetrics.allocatedBytes() : 0;
+		long start = System.nanoTime();
+		long scored = start;
+		scratch.random.setSeed(cellSeed(c, r));
+
+		// The index only knows whole patches, the cells cropped by the edge
+		// of the output are scanned
+		boolean coherent = coherentJumps >= 0
+				&& findCoherentCandidates(outputCell, c, r, scratch);
+		boolean indexed = !coherent && index != null
+				&& outputCell.cols() == patchSize
+				&& outputCell.rows() == patchSize;
+		if (coherent) {
+			scored = System.nanoTime();
+		} else if (indexed) {
+			// Look up the ones that satisfy the overlap constraints
+			index.getBestOverlaps(outputCell, c != 0, r != 0, tolerance,
+					candidates);
+		} else {
+			// Get the all patches of source texture image and their differences 
+			Point bestLoc = matcher.calcDists(dists, outputCell, c, r);
+			double bestval = dists[(int)bestLoc.y][(int)bestLoc.x];
+			scored = System.nanoTime();
+			
+			// Filter the ones that satisfy the overlap constraints. When the
+			// distances are not exact the filter keeps every patch that may
+			// satisfy them and they are scored again.
+			double error = matcher.maxDistanceError(overlapValues(outputCell,
+					c != 0, r != 0));
+			double threshold = (bestval + error) * tolerance + error;
+			getBestOverlaps(dists, threshold, candidates);
+			if (error > 0) {
+				rescore(outputCell, c != 0, r != 0, scratch);
+			}
+		}
+		long filtered = System.nanoTime();
+		if (indexed) {
+			// The index scores and filters in the same lookup
+			scored = filtered;
+		}
+		long rankNanos = 0;
+		if (pathCostWeight > 0 && (c != 0 || r != 0)) {
+			rankByPathCost(outputCell, c != 0, r != 0, scratch);
+			rankNanos = System.nanoTime() - filtered;
+			filtered += rankNanos;
+		}
+		Point loc = candidates.pick(scratch.random);
+		if (coherentJumps >= 0) {
+			rememberSource(c, r, loc, scratch.sources);
+		}
+		
+		// Fill the output with new data
+		fillPatch(outputCell, new Point(c, r), loc, scratch);
+
+		if (listener != null) {
+			long filled = System.nanoTime();
+			CellMetrics metrics = new CellMetrics(c, r);
+			metrics.scoringNanos = scored - start;
+			metrics.filteringNanos = filtered - scored;
+			metrics.seamNanos = scratch.seamNanos + rankNanos;
+			metrics.copyNanos = filled - filtered - scratch.seamNanos;
+			metrics.candidatesScanned = candidates.getScanned();
+			metrics.candidatesWithinTolerance = candidates.size();
+			if (allocated >= 0) {
+				metrics.bytesAllocated = CellMetrics.allocatedBytes()
+						- allocated;
+			} else {
+				metrics.bytesAllocated = -1;
+			}
+			listener.cellPlaced(metrics);
+		}
+	}
+
+	/**
+	 * This method scores the patches that continue the ones of the left and
+	 * top neighbours of a cell, and the random jumps, and keeps the ones
+	 * within tolerance of the best one.
+	 * 
+	 * @param outputCell
+	 * @param c
+	 *            Column (pixels) of the cell on the whole output
+	 * @param r
+	 *            Row (pixels) of the cell on the whole output
+	 * @param scratch
+	 * @return false if the best of them is too far and the whole texture
+	 *         must be searched
+	 */
+	private boolean findCoherentCandidates(Mat outputCell, int c, int r,
+			CellScratch scratch) {
+		boolean left = c != 0;
+		boolean top = r != 0;
+		if (!left && !top) {
+			return false;
+		}
+		int cols = textureImage.cols() - patchSize;
+		int rows = textureImage.rows() - patchSize;
+		int step = patchSize - overlapSize;
+		int[] xs = scratch.coherentX;
+		int[] ys = scratch.coherentY;
+		long[] ssds = scratch.coherentSsd;
+		if (xs.length < coherentJumps + 2) {
+			xs = scratch.coherentX = new int[coherentJumps + 2];
+			ys = scratch.coherentY = new int[coherentJumps + 2];
+			ssds = scratch.coherentSsd = new long[coherentJumps + 2];
+		}
+
+		// The patches next to the ones of the neighbours in the texture
+		int count = 0;
+		Long leftSource = scratch.sources.get(key(c - step, r));
+		if (left && leftSource != null) {
+			xs[count] = (int) (leftSource >> 32) + step;
+			ys[count] = (int) (long) leftSource;
+			count++;
+		}
+		Long topSource = scratch.sources.get(key(c, r - step));
+		if (top && topSource != null) {
+			xs[count] = (int) (topSource >> 32);
+			ys[count] = (int) (long) topSource + step;
+			count++;
+		}
+		for (int i = 0; i < coherentJumps; i++, count++) {
+			xs[count] = scratch.random.nextInt(cols);
+			ys[count] = scratch.random.nextInt(rows);
+		}
+
+		int cellStride = readCell(outputCell, scratch);
+		int width = outputCell.cols();
+		int height = outputCell.rows();
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			// A continuation past the edge of the texture cannot be taken
+			if (xs[i] >= cols || ys[i] >= rows) {
+				ssds[i] = -1;
+				continue;
+			}
+			ssds[i] = overlapSsd(scratch.cellPixels, cellStride, xs[i],
+					ys[i], width, height, left, top);
+			best = Math.min(best, ssds[i]);
+		}
+		if (best == Long.MAX_VALUE
+				|| best > maxCoherentError
+						* overlapValues(outputCell, left, top)) {
+			return false;
+		}
+
+		Candidates candidates = scratch.candidates;
+		candidates.clear(cols);
+		double threshold = best * tolerance;
+		candidates: for (int i = 0; i < count; i++) {
+			if (ssds[i] < 0 || ssds[i] > threshold) {
+				continue;
+			}
+			// A patch found twice is not more likely to be chosen
+			for (int j = 0; j < i; j++) {
+				if (xs[j] == xs[i] && ys[j] == ys[i]) {
+					continue candidates;
 				}
 			}
+			candidates.add(xs[i], ys[i], ssds[i]);
 		}
-		return list;
+		candidates.setScanned(count);
+		return true;
 	}
 
 	/**
-	 * This method calculates the horizontal error surface of a pair of patches
+	 * This method scores the candidates again with the exact SSD and keeps
+	 * the ones within tolerance of the best one.
+	 * 
 	 * @param outputCell
-	 * @param sourceCell
-	 * @return
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @param scratch
 	 */
-	private Mat leftOverlapDiff(Mat outputCell, Mat sourceCell){
-		Mat leftOverlapDiff = new Mat();
-		
-		Mat sourceLeft = sourceCell.submat(new Rect(0, 0, overlapSize, sourceCell.rows()));
-		Mat outputLeft = outputCell.submat(new Rect(0, 0, overlapSize, outputCell.rows()));
-		Core.subtract(outputLeft, sourceLeft, leftOverlapDiff);
-		Core.pow(leftOverlapDiff, 2, leftOverlapDiff);
-		
-		return leftOverlapDiff;
+	private void rescore(Mat outputCell, boolean left, boolean top,
+			CellScratch scratch) {
+		Candidates candidates = scratch.candidates;
+		int cellStride = readCell(outputCell, scratch);
+		for (int i = 0; i < candidates.size(); i++) {
+			candidates.setScore(i, overlapSsd(scratch.cellPixels, cellStride,
+					candidates.x(i), candidates.y(i), outputCell.cols(),
+					outputCell.rows(), left, top));
+		}
+		candidates.retainWithin(candidates.bestScore() * tolerance);
 	}
-	
+
 	/**
-	 * This method calculates the vertical error surface of a pair of patches
+	 * This method counts the channel values of the overlaps of a cell, the
+	 * corner counted in both strips.
+	 * 
 	 * @param outputCell
-	 * @param sourceCell
+	 * @param left
+	 * @param top
 	 * @return
 	 */
-	private Mat topOverlapDiff(Mat outputCell, Mat sourceCell){
-		Mat topOverlapDiff = new Mat();
-		
-		Mat sourceTop = sourceCell.submat(new Rect(0, 0, sourceCell.cols(), overlapSize));
-		Mat outputTop = outputCell.submat(new Rect(0, 0, outputCell.cols(), overlapSize));
-		Core.subtract(outputTop, sourceTop, topOverlapDiff);
-		Core.pow(topOverlapDiff, 2, topOverlapDiff);
-		
-		return topOverlapDiff;
+	private int overlapValues(Mat outputCell, boolean left, boolean top) {
+		return ((left ? outputCell.rows() * overlapSize : 0) + (top ? outputCell
+				.cols() * overlapSize : 0))
+				* textureImage.channels();
 	}
-	
+
+	/**
+	 * This method computes the SSD of every channel of the overlaps of a cell
+	 * with a patch, with the corner counted in both of them like the
+	 * matchers do.
+	 * 
+	 * @param cellPixels
+	 * @param cellStride
+	 * @param x
+	 * @param y
+	 * @param width
+	 *            Width (pixels) of the cell
+	 * @param height
+	 *            Height (pixels) of the cell
+	 * @param left
+	 * @param top
+	 * @return
+	 */
+	private long overlapSsd(byte[] cellPixels, int cellStride, int x, int y,
+			int width, int height, boolean left, boolean top) {
+		int channels = textureImage.channels();
+		int textureStride = textureImage.cols() * channels;
+		return OverlapSsd.overlapSsd(cellPixels, cellStride, texturePixels,
+				textureStride, y * textureStride + x * channels, width, height,
+				overlapSize, channels, left, top);
+	}
+
+	/**
+	 * This method remembers the source location of a cell for the coherent
+	 * search of its right and bottom neighbours, and forgets the one of the
+	 * cell above, whose neighbours are both placed now.
+	 * 
+	 * @param c
+	 * @param r
+	 * @param loc
+	 * @param sources
+	 */
+	private void rememberSource(int c, int r, Point loc,
+			ConcurrentHashMap<Long, Long> sources) {
+		sources.put(key(c, r), key((int) loc.x, (int) loc.y));
+		sources.remove(key(c, r - (patchSize - overlapSize)));
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	/**
+	 * This method ranks again the candidates with the lowest SSD by their
+	 * weighted SSD and seam cost, and keeps the ones within tolerance of the
+	 * best weighted cost. Both costs are taken per pixel and per channel so
+	 * they have the same range.
+	 * 
+	 * @param outputCell
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @param scratch
+	 */
+	private void rankByPathCost(Mat outputCell, boolean left, boolean top,
+			CellScratch scratch) {
+		Candidates candidates = scratch.candidates;
+		candidates.retainBest(pathCostCandidates);
+
+		int channels = textureImage.channels();
+		int cellStride = readCell(outputCell, scratch);
+		int textureStride = textureImage.cols() * channels;
+
+		// The SSD counts every channel of both strips
+		int width = outputCell.cols();
+		int height = outputCell.rows();
+		int overlapPixels = (left ? height * overlapSize : 0)
+				+ (top ? width * overlapSize : 0);
+		overlapPixels *= channels;
+		for (int i = 0; i < candidates.size(); i++) {
+			double pathCost = scratch.cutter.cut(scratch.cellPixels, 0,
+					cellStride, texturePixels, candidates.y(i) * textureStride
+							+ candidates.x(i) * channels, textureStride,
+					channels, width, height, left, top, allowHorizontalPaths);
+			pathCost /= scratch.cutter.getSeamLength() * channels;
+			double ssd = candidates.score(i) / overlapPixels;
+			candidates.setScore(i, ssd * (1 - pathCostWeight) + pathCost
+					* pathCostWeight);
+		}
+		candidates.retainWithin(candidates.bestScore() * tolerance);
+	}
+
+	/**
+	 * This method selects a random patch from the source texture and put it in
+	 * top left corner of an output image
+	 * 
+	 * @param output
+	 *            The output image to be synthesized
+	 */
+	private void selectFirstRandomPatch(Mat output) {
+		// Choose a random place to get the first patch, with a stream that
+		// no cell uses
+		Random random = new Random(cellSeed(-1, -1));
+		int x = random.nextInt(textureImage.cols() - patchSize);
+		int y = random.nextInt(textureImage.rows() - patchSize);
+
+		// Get a crop of the source texture image, as big as the first cell
+		Rect cellRect = cellRect(0, 0, output.cols(), output.rows());
+		Rect roi = new Rect(x, y, cellRect.width, cellRect.height);
+		Mat cropped = new Mat(textureImage, roi);
+
+		Mat firstCell = output.submat(cellRect);
+
+		// Replace the output cell with the selected source patch
+		cropped.copyTo(firstCell);
+	}
+
+	/**
+	 * This method collects the top left points of overlaps that satisfy the
+	 * threshold difference. Negative values mark patches that were not
+	 * scored.
+	 * 
+	 * @param vals
+	 * @param threshold
+	 * @param candidates
+	 *            Receives the candidates, it is cleared first
+	 */
+	void getBestOverlaps(double[][] vals, double threshold,
+			Candidates candidates) {
+		int cols = vals.length > 0 ? vals[0].length : 0;
+		candidates.clear(cols);
+		long scanned = 0;
+		for (int r = 0; r < vals.length; r++) {
+			double[] row = vals[r];
+			for (int c = 0; c < cols; c++) {
+				if (row[c] >= 0) {
+					scanned++;
+					if (row[c] <= threshold) {
+						candidates.add(c, r, row[c]);
+					}
+				}
+			}
+		}
+		candidates.setScanned(scanned);
+	}
+
 	/**
 	 * 
 	 * @param outputCell
 	 * @param loc
+	 * @param scratch
 	 */
-	private void fillPatch(Mat outputCell, Point outputLoc, Point sourceLoc) {
-		Mat sourceCell = textureImage.submat(new Rect((int) sourceLoc.x, (int) sourceLoc.y, patchSize, patchSize));
-		int nonOverlapSize = patchSize-overlapSize;
+	void fillPatch(Mat outputCell, Point outputLoc, Point sourceLoc,
+			CellScratch scratch) {
+		int sourceX = (int) sourceLoc.x;
+		int sourceY = (int) sourceLoc.y;
+		int width = outputCell.cols();
+		int height = outputCell.rows();
+		Mat sourceCell = textureImage.submat(new Rect(sourceX, sourceY, width, height));
+		boolean left = outputLoc.x != 0;
+		boolean top = outputLoc.y != 0;
+		scratch.seamNanos = 0;
 		
-		if(outputLoc.x==0){
-			Mat sourceOCell = sourceCell.submat(new Rect(0,0, overlapSize, patchSize));
-			Mat outputOCell = outputCell.submat(new Rect(0,0, overlapSize, patchSize));
-			sourceOCell.copyTo(outputOCell);
-			
-		}else if(outputLoc.y==0){
-			Mat sourceOCell = sourceCell.submat(new Rect(0,0, patchSize, overlapSize));
-			Mat outputOCell = outputCell.submat(new Rect(0,0, patchSize, overlapSize));
-			sourceOCell.copyTo(outputOCell);
+		if(!left && !top){
+			// Nothing to cut against
+			sourceCell.copyTo(outputCell);
 		}else{
-			Mat topOverlapDiff = topOverlapDiff(outputCell, sourceCell);
-			Mat leftOverlapDiff = leftOverlapDiff(outputCell, sourceCell);
-			MinPathFinder topFinder = new MinPathFinder(topOverlapDiff, false);
-			MinPathFinder leftFinder = new MinPathFinder(leftOverlapDiff, false);
-			Point leftLoc = new Point(0,0);
-			Point topLoc = new Point(0,0);
+			long start = System.nanoTime();
+			int channels = textureImage.channels();
+			int cellStride = readCell(outputCell, scratch);
+			int textureStride = textureImage.cols() * channels;
+			scratch.cutter.cut(scratch.cellPixels, 0, cellStride, texturePixels,
+					sourceY * textureStride + sourceX * channels,
+					textureStride, channels, width, height, left, top,
+					allowHorizontalPaths);
+			scratch.cutter.mask(scratch.maskPixels);
+			scratch.mask.put(0, 0, scratch.maskPixels);
+			scratch.seamNanos = System.nanoTime() - start;
 			
-			// Find the best combine source
-			getIntersectionPath(leftFinder,topFinder, leftLoc, topLoc);
+			// Take the patch on the far side of the seams, in a single pass
+			Mat mask = scratch.mask.submat(new Rect(0, 0, width, height));
+			sourceCell.copyTo(outputCell, mask);
+			mask.release();
 		}
-		
-		// Fill the non-overlap region
-		Mat sourceNOCell = sourceCell.submat(new Rect(overlapSize,overlapSize, nonOverlapSize, nonOverlapSize));
-		Mat outputNOCell = outputCell.submat(new Rect(overlapSize,overlapSize, nonOverlapSize, nonOverlapSize));
-		sourceNOCell.copyTo(outputNOCell);
-		
+		sourceCell.release();
 	}
 	
-	private void getIntersectionPath(MinPathFinder leftFinder,
-			MinPathFinder topFinder, Point leftLoc, Point topLoc) {
-		// Get the best combine location to start
-		double bestCost = leftFinder.costOf(0, 0) + topFinder.costOf(0, 0);
-		
-		for(int r=0; r<overlapSize;r++){
-			for(int c=0; c<overlapSize; c++){
-				double cost = leftFinder.costOf(r, c) + topFinder.costOf(r, c);
-				
-			}
+	/**
+	 * This method copies the pixels of an output cell in the scratch. A cell
+	 * cropped by the edge of the output keeps the stride of a whole one.
+	 * 
+	 * @param outputCell
+	 * @param scratch
+	 * @return the number of bytes of a row
+	 */
+	private int readCell(Mat outputCell, CellScratch scratch) {
+		int cellStride = patchSize * textureImage.channels();
+		OverlapSsd.readCell(outputCell, scratch.rowPixels, scratch.cellPixels,
+				cellStride);
+		return cellStride;
+	}
+
+	/**
+	 * This method frees the native memory held by the matchers. The texture
+	 * image belongs to the caller and is not released, nor a matcher given to
+	 * the constructor, unless they were created by
+	 * {@link #open(File, int, int, boolean, double)}.
+	 */
+	@Override
+	public void close() {
+		if (ownsMatcher) {
+			matcher.release();
+		}
+		if (ownsTexture) {
+			textureImage.release();
 		}
-		
 	}
-	
+
+	/**
+	 * Buffers used to place an output cell. Cells placed at the same time
+	 * need their own scratch.
+	 */
+	class CellScratch {
+		/**
+		 * Source location of the placed cells whose right or bottom neighbour
+		 * is not placed yet, by cell position, for the coherent search. The
+		 * scratches of a synthesis share it.
+		 */
+		private ConcurrentHashMap<Long, Long> sources;
+		private double[][] dists = new double[textureImage.rows() - patchSize][textureImage
+				.cols() - patchSize];
+		private SeamCutter cutter = new SeamCutter(patchSize, overlapSize);
+		private byte[] cellPixels = new byte[patchSize * patchSize
+				* textureImage.channels()];
+		private byte[] rowPixels = new byte[patchSize * textureImage.channels()];
+		private byte[] maskPixels = new byte[patchSize * patchSize];
+		private Mat mask = new Mat(patchSize, patchSize, CvType.CV_8UC1);
+		private Candidates candidates = new Candidates();
+		private Random random = new Random();
+		private long seamNanos;
+		private int[] coherentX = new int[0];
+		private int[] coherentY = new int[0];
+		private long[] coherentSsd = new long[0];
+
+		CellScratch() {
+			this(new ConcurrentHashMap<Long, Long>());
+		}
+
+		CellScratch(ConcurrentHashMap<Long, Long> sources) {
+			this.sources = sources;
+		}
+
+		void release() {
+			mask.release();
+		}
+	}
+
 	public static void main(String[] args) {
 		File textureFile = new File("resources/textures/0.jpg");
 		Mat textureImage = new Mat();
@@ -329,8 +1371,11 @@ public class ImageQuilter {
 		textureImage = Imgcodecs.imread(textureFile.getAbsolutePath(),
 				Imgcodecs.CV_LOAD_IMAGE_COLOR);
 
-		ImageQuilter iq = new ImageQuilter(textureImage, 30, 5, false, 2.5);
-		iq.synthesize(155, 155);
+		try (ImageQuilter iq = new ImageQuilter(textureImage, 30, 5, false,
+				0.25)) {
+			Mat output = iq.synthesize(155, 155);
+			Imgcodecs.imwrite("output/step-2.jpg", output);
+		}
 
 	}
 
@@ -20,6 +20,7 @@ import java.awt.image.DataBufferByte;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JScrollPane;
 //import javax.swing.plaf.ButtonUI;
 import javax.swing.WindowConstants;
 
@@ -35,6 +36,14 @@ public class Imshow {
 	// private MatOfByte matOfByte;
 	private Boolean SizeCustom;
 	private int Height, Width;
+	/**
+	 * The image shown, reused while the size and type do not change
+	 */
+	private BufferedImage frame;
+	/**
+	 * The resized image, so the one given is not changed
+	 */
+	private Mat resized;
 
 	public Imshow(String title) {
 		Window = new JFrame();
@@ -68,39 +77,86 @@ public class Imshow {
 
 	public void showImage(Mat img) {
 		if (SizeCustom) {
-			Imgproc.resize(img, img, new Size(Height, Width));
+			if (resized == null) {
+				resized = new Mat();
+			}
+			Imgproc.resize(img, resized, new Size(Height, Width));
+			img = resized;
 		}
 		// Highgui.imencode(".jpg", img, matOfByte);
 		// byte[] byteArray = matOfByte.toArray();
-		BufferedImage bufImage = null;
 		try {
 			// InputStream in = new ByteArrayInputStream(byteArray);
 			// bufImage = ImageIO.read(in);
-			bufImage = toBufferedImage(img);
-			image.setImage(bufImage);
-			Window.pack();
-			label.updateUI();
+			BufferedImage previous = frame;
+			frame = toBufferedImage(img, frame);
+			if (frame != previous) {
+				// Only a new size changes the layout
+				image.setImage(frame);
+				Window.pack();
+			}
+			label.repaint();
 			Window.setVisible(true);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Shows a live preview of a synthesis in the window, which scrolls when
+	 * the output is bigger than the screen. The preview repaints itself as
+	 * the cells are placed.
+	 * 
+	 * @param preview
+	 *            The progress sink of the synthesis
+	 */
+	public void showPreview(PreviewSurface preview) {
+		Window.getContentPane().removeAll();
+		Window.getContentPane().add(new JScrollPane(preview.getComponent()));
+		Window.setResizable(true);
+		Window.pack();
+		Window.setVisible(true);
+	}
+
 	// CREDITS TO DANIEL: http://danielbaggio.blogspot.com.br/ for the improved
 	// version !
 
 	public BufferedImage toBufferedImage(Mat m) {
+		return toBufferedImage(m, null);
+	}
+
+	/**
+	 * Copies a Mat in an image, which is reused when it has the same size and
+	 * type. The pixels go straight into the raster of the image.
+	 * 
+	 * @param m
+	 * @param reuse
+	 *            An image to reuse, or null
+	 * @return reuse, or a new image
+	 */
+	private BufferedImage toBufferedImage(Mat m, BufferedImage reuse) {
 		int type = BufferedImage.TYPE_BYTE_GRAY;
 		if (m.channels() > 1) {
 			type = BufferedImage.TYPE_3BYTE_BGR;
 		}
-		int bufferSize = m.channels() * m.cols() * m.rows();
-		byte[] b = new byte[bufferSize];
-		m.get(0, 0, b); // get all the pixels
-		BufferedImage image = new BufferedImage(m.cols(), m.rows(), type);
+		BufferedImage image = reuse;
+		if (image == null || image.getType() != type
+				|| image.getWidth() != m.cols()
+				|| image.getHeight() != m.rows()) {
+			image = new BufferedImage(m.cols(), m.rows(), type);
+		}
 		final byte[] targetPixels = ((DataBufferByte) image.getRaster()
 				.getDataBuffer()).getData();
-		System.arraycopy(b, 0, targetPixels, 0, b.length);
+		if (m.isContinuous()) {
+			m.get(0, 0, targetPixels); // get all the pixels
+		} else {
+			int stride = m.channels() * m.cols();
+			byte[] row = new byte[stride];
+			for (int r = 0; r < m.rows(); r++) {
+				m.get(r, 0, row);
+				System.arraycopy(row, 0, targetPixels, r * stride, stride);
+			}
+		}
 		return image;
 
 	}
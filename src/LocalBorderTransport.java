@@ -0,0 +1,64 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BorderTransport} between workers of the same process. The strips
+ * are kept until they are received.
+ */
+public class LocalBorderTransport implements BorderTransport {
+	private Map<Long, BorderStrip> strips = new HashMap<>();
+
+	@Override
+	public synchronized void send(BorderStrip strip) {
+		strips.put(key(strip.getTileCol(), strip.getTileRow(), strip.getEdge()),
+				strip);
+		notifyAll();
+	}
+
+	@Override
+	public synchronized BorderStrip receive(int tileCol, int tileRow,
+			BorderStrip.Edge edge) throws InterruptedException {
+		long key = key(tileCol, tileRow, edge);
+		while (!strips.containsKey(key)) {
+			wait();
+		}
+		return strips.remove(key);
+	}
+
+	/**
+	 * This method waits for a strip like
+	 * {@link #receive(int, int, BorderStrip.Edge)} but leaves it in place, so
+	 * that it is not lost if it cannot be delivered. It is taken with
+	 * {@link #remove(BorderStrip)} once it is delivered.
+	 *
+	 * @param tileCol
+	 * @param tileRow
+	 * @param edge
+	 * @return
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	synchronized BorderStrip peek(int tileCol, int tileRow,
+			BorderStrip.Edge edge) throws InterruptedException {
+		long key = key(tileCol, tileRow, edge);
+		while (!strips.containsKey(key)) {
+			wait();
+		}
+		return strips.get(key);
+	}
+
+	/**
+	 * This method takes a strip returned by
+	 * {@link #peek(int, int, BorderStrip.Edge)}.
+	 *
+	 * @param strip
+	 */
+	synchronized void remove(BorderStrip strip) {
+		strips.remove(key(strip.getTileCol(), strip.getTileRow(),
+				strip.getEdge()));
+	}
+
+	private static long key(int tileCol, int tileRow, BorderStrip.Edge edge) {
+		return ((long) tileCol << 34) | ((long) tileRow << 2) | edge.ordinal();
+	}
+}
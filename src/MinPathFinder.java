@@ -5,115 +5,264 @@ import org.opencv.core.Point;
 
 public class MinPathFinder {
 	/**
-	 * cost[i][j] stores the commulative cost of going from spot i,j to the destination given as parameter in the constructor
+	 * cost[r*cols+c] stores the commulative cost of going from spot r,c to the destination row
 	 */
-	private Mat cost;
+	private double[] cost;
 	/**
-	 * path[i][j] stores the spot to go next from i,j heding towards destination. 
+	 * path[r*cols+c] stores the column to go next in row r-1 from r,c heading towards destination.
 	 */
-	private Point[][] path;
-	
+	private int[] path;
+	/**
+	 * sideways[r*cols+c] tells that the next column is in row r itself, when
+	 * horizontal movement is allowed.
+	 */
+	private boolean[] sideways;
+	/**
+	 * The differences given as a Mat, summed over the channels
+	 */
+	private double[] differences;
+	private Mat scratch = new Mat();
+	private double[] scratchData;
+
+	private int rows;
+	private int cols;
+
+	/**
+	 * This constructor setup a path finder whose buffers can hold differences
+	 * up to the given size. It can be reused to find any number of paths.
+	 * @param maxRows
+	 * @param maxCols
+	 */
+	public MinPathFinder(int maxRows, int maxCols){
+		cost = new double[maxRows * maxCols];
+		path = new int[maxRows * maxCols];
+		sideways = new boolean[maxRows * maxCols];
+		differences = new double[maxRows * maxCols];
+	}
+
 	/**
 	 * This constructor setup a path finder to find the min cost path from last row to the first row given the cost of being at each position
 	 * @param differences
 	 * @param allowHorizontal
 	 */
 	public MinPathFinder(Mat differences, boolean allowHorizontal){
+		this(differences.rows(), differences.cols());
+		find(differences, allowHorizontal);
+	}
+
+	/**
+	 * This method finds the min cost path from last row to the first row
+	 * given the cost of being at each position. The cost of a position is
+	 * the sum of its channels. The differences are copied in a single call.
+	 * @param differences
+	 * @param allowHorizontal
+	 */
+	public void find(Mat differences, boolean allowHorizontal){
 		int rows = differences.rows();
-		int cols =  differences.cols();
-		cost = new Mat(rows, cols, CvType.CV_64F);
-		path = new Point[differences.rows()][differences.cols()];
-		
+		int cols = differences.cols();
+		int channels = differences.channels();
+		differences.convertTo(scratch, CvType.CV_64F);
+
+		int size = rows * cols * channels;
+		if (scratchData == null || scratchData.length < size) {
+			scratchData = new double[size];
+		}
+		scratch.get(0, 0, scratchData);
+		ensureCapacity(rows * cols);
+		for (int i = 0; i < rows * cols; i++) {
+			double sum = 0;
+			for (int ch = 0; ch < channels; ch++) {
+				sum += scratchData[i * channels + ch];
+			}
+			this.differences[i] = sum;
+		}
+
+		find(this.differences, rows, cols, allowHorizontal);
+	}
+
+	/**
+	 * This method finds the min cost path from last row to the first row
+	 * given the cost of being at each position.
+	 * @param differences
+	 * 			differences[r*cols+c] is the cost of being at r,c
+	 * @param rows
+	 * @param cols
+	 * @param allowHorizontal
+	 */
+	public void find(double[] differences, int rows, int cols, boolean allowHorizontal){
+		this.rows = rows;
+		this.cols = cols;
+		ensureCapacity(rows * cols);
+
 		// Set up destination row
-		for(int c=0;c<differences.cols();c++){
-			cost.put(0, c, differences.get(0, c)[0]);
-			path[0][c] = null;
+		for(int c=0;c<cols;c++){
+			cost[c] = differences[c];
+			path[c] = -1;
+			sideways[c] = false;
 		}
-		
+
 		// Finish up if the path is already determined
 		if(cols==1){
-			for(int r=1;r>rows;r++){
-				cost.put(r, 0, cost.get(r-1, 0)[0] + differences.get(r, 0)[0]);
-				path[r][0] = new Point(0, r-1);
+			for(int r=1;r<rows;r++){
+				cost[r] = cost[r-1] + differences[r];
+				path[r] = 0;
+				sideways[r] = false;
 			}
 			return;
 		}
-		
+
 		// Loop over the rows, getting closer to the source each iteration
-		for(int r=1;r<rows-1;r++){
-			
-			// Handle left column
-			double minCostPrevRow = Math.min(cost.get(r-1, 0)[0], cost.get(r-1, 1)[0]);
-			cost.put(r, 0, minCostPrevRow + differences.get(r, 0)[0]);
-			path[r][0] = new Point(0, r-1);
-			
-			// Handle middle columns
-			for(int c=1;c<cols-1;c++){
-				minCostPrevRow = Math.min(cost.get(r-1, c-1)[0], cost.get(r-1, c)[0]);
-				minCostPrevRow = Math.min(minCostPrevRow, cost.get(r-1, c+1)[0]);
-				cost.put(r, 0, minCostPrevRow + differences.get(r, c)[0]);
-				path[r][c] = new Point(c, r-1);
+		for(int r=1;r<rows;r++){
+			int prev = (r-1)*cols;
+			int row = r*cols;
+
+			for(int c=0;c<cols;c++){
+				// Look at the spots above, preferring the straight one
+				int next = c;
+				double minCostPrevRow = cost[prev+c];
+				if(c>0 && cost[prev+c-1] < minCostPrevRow){
+					next = c-1;
+					minCostPrevRow = cost[prev+c-1];
+				}
+				if(c<cols-1 && cost[prev+c+1] < minCostPrevRow){
+					next = c+1;
+					minCostPrevRow = cost[prev+c+1];
+				}
+				cost[row+c] = minCostPrevRow + differences[row+c];
+				path[row+c] = next;
+				sideways[row+c] = false;
 			}
-			
-			// Handle right column
-			minCostPrevRow = Math.min(cost.get(r-1, cols-2)[0], cost.get(r-1, cols-1)[0]);
-			cost.put(r, 0, minCostPrevRow + differences.get(r, cols-1)[0]);
-			path[r][cols-1] = new Point(cols-1, r-1);
-			
+
 			// Check for horizontal movement along a row
 			if (allowHorizontal) {
-				handleHorizontalMovement(differences.row(r), r);
+				handleHorizontalMovement(differences, r);
+			}
+		}
+
+	}
+
+	/**
+	 * This method lets the path move along row r before going to the
+	 * previous row. A horizontal run only pays off in one direction, so a
+	 * sweep from the left and one from the right find the best costs. A
+	 * spot is only updated to a strictly lower cost, which keeps the path
+	 * free of loops.
+	 * @param differences
+	 * @param r
+	 */
+	private void handleHorizontalMovement(double[] differences, int r) {
+		int row = r*cols;
+
+		// Coming from the left
+		for(int c=1;c<cols;c++){
+			double viaLeft = cost[row+c-1] + differences[row+c];
+			if(viaLeft < cost[row+c]){
+				cost[row+c] = viaLeft;
+				path[row+c] = c-1;
+				sideways[row+c] = true;
+			}
+		}
+
+		// Coming from the right
+		for(int c=cols-2;c>=0;c--){
+			double viaRight = cost[row+c+1] + differences[row+c];
+			if(viaRight < cost[row+c]){
+				cost[row+c] = viaRight;
+				path[row+c] = c+1;
+				sideways[row+c] = true;
 			}
 		}
-		
 	}
 
-	private void handleHorizontalMovement(Mat row, int r) {
-		
-		boolean changed;
-		
-		do{
-			changed=false;
+	private void ensureCapacity(int size) {
+		if (cost.length < size) {
+			cost = new double[size];
+			path = new int[size];
+			sideways = new boolean[size];
+			differences = new double[size];
 		}
-		while(changed);
-		
 	}
-	
+
 	/**
 	 * Given a current location, this method returns the next point where it is needed to go to reach destination.
 	 * @param currentLoc
 	 * @return
 	 */
 	public Point follow(Point currentLoc){
-		return path[(int) currentLoc.y][(int) currentLoc.x];
+		int r = (int) currentLoc.y;
+		int c = (int) currentLoc.x;
+		if (r == 0) {
+			return null;
+		}
+		if (isSideways(r, c)) {
+			return new Point(next(r, c), r);
+		}
+		return new Point(next(r, c), r-1);
 	}
-	
+
 	/**
-	 * This method returns the location of the best start column
+	 * This method tells whether the path goes from a location to another one
+	 * in the same row, in which case {@link #next(int, int)} is a column of
+	 * that row.
+	 * @param row
+	 * @param col
 	 * @return
 	 */
-	public Point bestSourceLoc(){
+	public boolean isSideways(int row, int col){
+		return sideways[row*cols+col];
+	}
+
+	/**
+	 * Given a current location, this method returns the column to go in the previous row to reach destination.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public int next(int row, int col){
+		return path[row*cols+col];
+	}
+
+	/**
+	 * This method returns the best start column in the last row
+	 * @return
+	 */
+	public int bestSourceCol(){
+		int last = (rows-1)*cols;
 		int best=0;
-		for(int c=1;c<cost.cols();c++){
-			if(cost.get(cost.rows()-1, c)[0] < cost.get(cost.rows()-1, best)[0]){
+		for(int c=1;c<cols;c++){
+			if(cost[last+c] < cost[last+best]){
 				best=c;
 			}
 		}
-		
-		return new Point(cost.rows()-1,best);
+		return best;
+	}
+
+	/**
+	 * This method returns the location of the best start column
+	 * @return
+	 */
+	public Point bestSourceLoc(){
+		return new Point(bestSourceCol(), rows-1);
 	}
-	
+
 	public double costOf(int row, int col){
-		return cost.get(row, col)[0];
+		return cost[row*cols+col];
 	}
 
-	public Mat getCost() {
-		return cost;
+	/**
+	 * This method frees the native buffer used to copy Mat differences
+	 */
+	public void release() {
+		scratch.release();
 	}
 
-	public Point[][] getPath() {
-		return path;
+	public int getRows() {
+		return rows;
 	}
-	
-	
+
+	public int getCols() {
+		return cols;
+	}
+
+
 }
@@ -0,0 +1,73 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * A strategy to score the overlap region of an output cell against every
+ * possible patch of the source texture.
+ */
+public interface OverlapMatcher {
+
+	/**
+	 * This method calculates the distance (SSD) between the overlap part of
+	 * outputCell and the corresponding parts of the possible input patches.
+	 * This returns the array index of the smallest distance found.
+	 * 
+	 * @param dists
+	 *            This will be filled in. The return value in dists[y][x] will
+	 *            be the SSD between an input patch with corner (x,y) and the
+	 *            given output patch.
+	 * @param outputCell
+	 *            The output cell to be analyzed. On the right and bottom
+	 *            edges of the output it may be narrower or shorter than a
+	 *            patch, then only the overlap inside it is compared.
+	 * @param cellCol
+	 *            Current column of output cell on the whole output
+	 * @param cellRow
+	 *            Current row of output cell on the whole output
+	 * @return the top left corner of the best input patch
+	 */
+	Point calcDists(double[][] dists, Mat outputCell, int cellCol, int cellRow);
+
+	/**
+	 * This method does the same as
+	 * {@link #calcDists(double[][], Mat, int, int)} but only for the input
+	 * patches whose top row is in [rowStart, rowEnd). Other rows of dists are
+	 * not touched, so different bands can be scored at the same time.
+	 * 
+	 * @param dists
+	 * @param outputCell
+	 * @param cellCol
+	 * @param cellRow
+	 * @param rowStart
+	 *            First row of the band
+	 * @param rowEnd
+	 *            Row after the last row of the band
+	 * @return the top left corner of the best input patch of the band
+	 */
+	Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd);
+
+	/**
+	 * @return the number of possible input patch rows, which is the number of
+	 *         rows of dists
+	 */
+	int candidateRows();
+
+	/**
+	 * This method bounds how far a distance written in dists may be from the
+	 * exact SSD. The candidates within tolerance of a matcher whose distances
+	 * are not exact are scored again by the caller.
+	 *
+	 * @param overlapValues
+	 *            Number of channel values of the overlaps compared, the
+	 *            corner counted in both strips
+	 * @return the largest error of a distance, 0 when they are exact
+	 */
+	double maxDistanceError(int overlapValues);
+
+	/**
+	 * This method frees the native memory held by the matcher. The matcher
+	 * can not be used after it.
+	 */
+	void release();
+}
@@ -0,0 +1,117 @@
+import org.opencv.core.Mat;
+
+/**
+ * The exact overlap SSD of an output cell and a texture patch, shared by the
+ * matchers, {@link PatchIndex} and {@link ImageQuilter}: the squared
+ * differences of every channel of the left and top strips, with the corner
+ * counted in both of them. The pixels are interleaved 8 bit values row by
+ * row, the texture as copied by {@link ImageQuilter#texturePixels(Mat)} and
+ * the cell as read by {@link #readCell(Mat, byte[], byte[], int)}. The
+ * differences are taken in integers, so the distances are exact.
+ */
+final class OverlapSsd {
+
+	private OverlapSsd() {
+	}
+
+	/**
+	 * This method copies an output cell, which may be cropped by the edge of
+	 * the output, in the top left corner of a patch sized buffer.
+	 *
+	 * @param outputCell
+	 * @param row
+	 *            Buffer of at least a patch row
+	 * @param cell
+	 *            Buffer of at least a patch, the pixels outside the cell are
+	 *            not touched
+	 * @param cellStride
+	 *            Bytes of a patch row
+	 */
+	static void readCell(Mat outputCell, byte[] row, byte[] cell,
+			int cellStride) {
+		int rowBytes = outputCell.cols() * outputCell.channels();
+		for (int r = 0; r < outputCell.rows(); r++) {
+			// A submat is not continuous, so it is read one row at a time.
+			// Reading a cropped row goes on with the next one, only the
+			// first bytes are kept.
+			outputCell.get(r, 0, row);
+			System.arraycopy(row, 0, cell, r * cellStride, rowBytes);
+		}
+	}
+
+	/**
+	 * This method computes the SSD of the overlaps of a cell with the patch
+	 * of the texture at the given offset.
+	 *
+	 * @param cell
+	 * @param cellStride
+	 *            Bytes of a cell row
+	 * @param texture
+	 * @param textureStride
+	 *            Bytes of a texture row
+	 * @param source
+	 *            Offset of the top left pixel of the patch
+	 * @param width
+	 *            Width (pixels) of the cell
+	 * @param height
+	 *            Height (pixels) of the cell
+	 * @param overlapSize
+	 * @param channels
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @return
+	 */
+	static long overlapSsd(byte[] cell, int cellStride, byte[] texture,
+			int textureStride, int source, int width, int height,
+			int overlapSize, int channels, boolean left, boolean top) {
+		long ssd = 0;
+		if (top) {
+			ssd += stripSsd(cell, 0, cellStride, texture, source,
+					textureStride, width * channels, overlapSize);
+		}
+		if (left) {
+			ssd += stripSsd(cell, 0, cellStride, texture, source,
+					textureStride, overlapSize * channels, height);
+		}
+		return ssd;
+	}
+
+	/**
+	 * This method computes the SSD of a strip of the cell and the strip of
+	 * the texture with the same size.
+	 *
+	 * @param cell
+	 * @param cellOffset
+	 *            Offset of the first byte of the strip in the cell
+	 * @param cellStride
+	 * @param texture
+	 * @param textureOffset
+	 *            Offset of the first byte of the strip in the texture
+	 * @param textureStride
+	 * @param length
+	 *            Bytes of a strip row
+	 * @param height
+	 *            Rows of the strip
+	 * @return
+	 */
+	static long stripSsd(byte[] cell, int cellOffset, int cellStride,
+			byte[] texture, int textureOffset, int textureStride, int length,
+			int height) {
+		long ssd = 0;
+		for (int r = 0; r < height; r++) {
+			int cellRow = cellOffset + r * cellStride;
+			int textureRow = textureOffset + r * textureStride;
+			// A row sums at most a patch of squares, it fits in an int
+			int sum = 0;
+			for (int i = 0; i < length; i++) {
+				int d = (cell[cellRow + i] & 0xff)
+						- (texture[textureRow + i] & 0xff);
+				sum += d * d;
+			}
+			ssd += sum;
+		}
+		return ssd;
+	}
+}
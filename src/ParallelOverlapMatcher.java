@@ -0,0 +1,124 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * This matcher splits the possible input patch rows of another matcher in
+ * bands and scores them on a fork-join pool. Every band returns its own best
+ * location and they are reduced to the global one, preferring the upper band
+ * on ties so the result is the same as the sequential one.
+ */
+public class ParallelOverlapMatcher implements OverlapMatcher {
+	private OverlapMatcher matcher;
+	private ForkJoinPool pool;
+	private int minBandRows;
+
+	/**
+	 * @param matcher
+	 *            The matcher used to score every band.
+	 * @param parallelism
+	 *            Number of threads used to score the bands.
+	 */
+	public ParallelOverlapMatcher(OverlapMatcher matcher, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive");
+		}
+		this.matcher = matcher;
+		this.pool = new ForkJoinPool(parallelism);
+
+		// A few bands per thread so the work is balanced
+		this.minBandRows = Math.max(1, matcher.candidateRows()
+				/ (4 * parallelism));
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0,
+				candidateRows());
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		return pool.invoke(new BandTask(dists, outputCell, cellCol, cellRow,
+				rowStart, rowEnd));
+	}
+
+	@Override
+	public int candidateRows() {
+		return matcher.candidateRows();
+	}
+
+	/**
+	 * @return the matcher used to score every band
+	 */
+	OverlapMatcher getMatcher() {
+		return matcher;
+	}
+
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		return matcher.maxDistanceError(overlapValues);
+	}
+
+	@Override
+	public void release() {
+		pool.shutdown();
+		matcher.release();
+	}
+
+	/**
+	 * Scores a band of rows, splitting it in halves while it is big enough.
+	 */
+	private class BandTask extends RecursiveTask<Point> {
+		private static final long serialVersionUID = 1L;
+
+		private double[][] dists;
+		private Mat outputCell;
+		private int cellCol;
+		private int cellRow;
+		private int rowStart;
+		private int rowEnd;
+
+		BandTask(double[][] dists, Mat outputCell, int cellCol, int cellRow,
+				int rowStart, int rowEnd) {
+			this.dists = dists;
+			this.outputCell = outputCell;
+			this.cellCol = cellCol;
+			this.cellRow = cellRow;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+		@Override
+		protected Point compute() {
+			if (rowEnd - rowStart <= minBandRows) {
+				return matcher.calcBandDists(dists, outputCell, cellCol,
+						cellRow, rowStart, rowEnd);
+			}
+
+			int middle = (rowStart + rowEnd) >>> 1;
+			BandTask upper = new BandTask(dists, outputCell, cellCol, cellRow,
+					rowStart, middle);
+			BandTask lower = new BandTask(dists, outputCell, cellCol, cellRow,
+					middle, rowEnd);
+			lower.fork();
+			Point upperBest = upper.compute();
+			Point lowerBest = lower.join();
+
+			// Reduce the minimum of both bands
+			if (upperBest == null) {
+				return lowerBest;
+			}
+			if (lowerBest == null) {
+				return upperBest;
+			}
+			double upperVal = dists[(int) upperBest.y][(int) upperBest.x];
+			double lowerVal = dists[(int) lowerBest.y][(int) lowerBest.x];
+			return lowerVal < upperVal ? lowerBest : upperBest;
+		}
+	}
+}
@@ -0,0 +1,505 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * This index stores, for every possible input patch of a texture, the pixels
+ * of its overlap strips (left strip, top strip and the L shaped union of
+ * both) and answers which patches are within a tolerance of the best one for
+ * a given output cell without scanning the whole texture.
+ *
+ * There is one vantage point tree per strip shape. The vectors can be reduced
+ * with PCA; the distance between two reduced vectors is never bigger than the
+ * distance between the full ones, so the reduced tree returns a superset of
+ * the candidates that is then filtered with the exact SSD. The answer is the
+ * same that a full scan of the distances gives.
+ *
+ * The index is built once and can be reused by any number of synthesis runs
+ * on the same texture.
+ */
+public class PatchIndex {
+	private static final int LEFT = 0;
+	private static final int TOP = 1;
+	private static final int CORNER = 2;
+
+	/**
+	 * Number of patches used to compute the PCA basis
+	 */
+	private static final int PCA_SAMPLES = 2048;
+
+	/**
+	 * The texture, interleaved
+	 */
+	private byte[] texture;
+	private int textureCols;
+	private int channels;
+	private int patchSize;
+	private int overlapSize;
+
+	/**
+	 * Number of candidate rows and columns
+	 */
+	private int rows;
+	private int cols;
+
+	private Tree[] trees = new Tree[3];
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param components
+	 *            Number of PCA components kept for every strip. When it is 0
+	 *            the full strips are used.
+	 */
+	public PatchIndex(Mat textureImage, int patchSize, int overlapSize,
+			int components) {
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.rows = textureImage.rows() - patchSize;
+		this.cols = textureImage.cols() - patchSize;
+		this.textureCols = textureImage.cols();
+
+		// Every channel is compared, as in the matchers
+		channels = textureImage.channels();
+		texture = ImageQuilter.texturePixels(textureImage);
+
+		Random random = new Random(0);
+		trees[LEFT] = new Tree(true, false, components, random);
+		trees[TOP] = new Tree(false, true, components, random);
+		trees[CORNER] = new Tree(true, true, components, random);
+	}
+
+	/**
+	 * @return an estimate of the memory (bytes) held by the index
+	 */
+	public long byteSize() {
+		long size = texture.length;
+		for (Tree tree : trees) {
+			size += tree.items.length * 12L;
+			if (tree.coords != null) {
+				size += tree.coords.length * 4L + tree.basis.length * 4L;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * This method collects the top left points of the input patches whose
+	 * overlap distance with the output cell is not bigger than tolerance
+	 * times the best distance.
+	 *
+	 * @param outputCell
+	 *            The output cell to be analyzed
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @param tolerance
+	 *            Candidates up to tolerance times the best distance are kept
+	 * @param candidates
+	 *            Receives the candidates, it is cleared first
+	 */
+	public void getBestOverlaps(Mat outputCell, boolean left, boolean top,
+			double tolerance, Candidates candidates) {
+		candidates.clear(cols);
+
+		// Without overlap every patch is as good as any other one
+		if (!left && !top) {
+			for (int id = 0; id < rows * cols; id++) {
+				candidates.addId(id, 0);
+			}
+			return;
+		}
+
+		Tree tree = trees[left && top ? CORNER : left ? LEFT : TOP];
+		int[] query = tree.cellVector(outputCell);
+
+		// The nearest neighbour in the tree space bounds the exact best
+		float[] point = tree.project(query);
+		int nearest = tree.nearest(point);
+		long bound = tree.exactDist(query, nearest);
+
+		// Anything within tolerance of the real best is within the radius.
+		// The slack covers the float rounding of the projected coordinates,
+		// the extra candidates are dropped by the exact filter below.
+		double radius = Math.sqrt(tolerance * bound) * (1 + 1e-4) + 0.5;
+		int[] found = tree.range(point, radius);
+		int count = found[0];
+
+		candidates.setScanned(count);
+		long[] exact = new long[count];
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			exact[i] = tree.exactDist(query, found[i + 1]);
+			best = Math.min(best, exact[i]);
+		}
+
+		double threshold = best * tolerance;
+		for (int i = 0; i < count; i++) {
+			if (exact[i] <= threshold) {
+				candidates.addId(found[i + 1], exact[i]);
+			}
+		}
+	}
+
+	/**
+	 * A vantage point tree over the strips of one shape. The tree is stored
+	 * implicitly in the items array: the node whose vantage point is at
+	 * position i has its inner children in [i+1, split[i]) and its outer
+	 * children in [split[i], end).
+	 */
+	private class Tree {
+		/**
+		 * Offsets of every channel of every strip pixel in the texture and in
+		 * an output cell, relative to the top left corner of the patch
+		 */
+		private int[] textureOffsets;
+		private int[] cellOffsets;
+		private int dims;
+
+		/**
+		 * PCA projection, null when the full strips are used
+		 */
+		private float[] mean;
+		private float[] basis;
+		private int components;
+		private float[] coords;
+
+		private int[] items;
+		private float[] radius;
+		private int[] split;
+
+		Tree(boolean left, boolean top, int components, Random random) {
+			buildOffsets(left, top);
+
+			int count = rows * cols;
+			if (components > 0 && components < dims) {
+				this.components = components;
+				computeBasis(count, random);
+				coords = new float[count * components];
+				int[] vector = new int[dims];
+				for (int id = 0; id < count; id++) {
+					gather(id, vector);
+					project(vector, coords, id * components);
+				}
+			} else {
+				this.components = dims;
+			}
+
+			items = new int[count];
+			for (int i = 0; i < count; i++) {
+				items[i] = i;
+			}
+			radius = new float[count];
+			split = new int[count];
+			build(0, count, new double[count], random);
+		}
+
+		private void buildOffsets(boolean left, boolean top) {
+			dims = ((left ? overlapSize * patchSize : 0) + (top ? overlapSize
+					* patchSize : 0))
+					* channels;
+			textureOffsets = new int[dims];
+			cellOffsets = new int[dims];
+			int i = 0;
+			if (left) {
+				for (int r = 0; r < patchSize; r++) {
+					for (int c = 0; c < overlapSize; c++) {
+						for (int ch = 0; ch < channels; ch++, i++) {
+							textureOffsets[i] = (r * textureCols + c)
+									* channels + ch;
+							cellOffsets[i] = (r * patchSize + c) * channels
+									+ ch;
+						}
+					}
+				}
+			}
+			if (top) {
+				for (int r = 0; r < overlapSize; r++) {
+					for (int c = 0; c < patchSize; c++) {
+						for (int ch = 0; ch < channels; ch++, i++) {
+							textureOffsets[i] = (r * textureCols + c)
+									* channels + ch;
+							cellOffsets[i] = (r * patchSize + c) * channels
+									+ ch;
+						}
+					}
+				}
+			}
+		}
+
+		private void computeBasis(int count, Random random) {
+			int samples = Math.min(count, PCA_SAMPLES);
+			float[] data = new float[samples * dims];
+			int[] vector = new int[dims];
+			for (int s = 0; s < samples; s++) {
+				gather(random.nextInt(count), vector);
+				for (int i = 0; i < dims; i++) {
+					data[s * dims + i] = vector[i];
+				}
+			}
+			Mat dataMat = new Mat(samples, dims, CvType.CV_32F);
+			dataMat.put(0, 0, data);
+			Mat meanMat = new Mat();
+			Mat eigenvectors = new Mat();
+			Core.PCACompute(dataMat, meanMat, eigenvectors, components);
+
+			// There may be less components than asked for
+			components = eigenvectors.rows();
+			mean = new float[dims];
+			meanMat.get(0, 0, mean);
+			basis = new float[components * dims];
+			eigenvectors.get(0, 0, basis);
+
+			dataMat.release();
+			meanMat.release();
+			eigenvectors.release();
+		}
+
+		/**
+		 * Fills the vector with the strip of the given candidate
+		 */
+		private void gather(int id, int[] vector) {
+			int base = ((id / cols) * textureCols + id % cols) * channels;
+			for (int i = 0; i < dims; i++) {
+				vector[i] = texture[base + textureOffsets[i]] & 0xff;
+			}
+		}
+
+		/**
+		 * Gets the strip of an output cell
+		 */
+		int[] cellVector(Mat outputCell) {
+			byte[] pixels = new byte[patchSize * patchSize * channels];
+			outputCell.get(0, 0, pixels);
+			int[] vector = new int[dims];
+			for (int i = 0; i < dims; i++) {
+				vector[i] = pixels[cellOffsets[i]] & 0xff;
+			}
+			return vector;
+		}
+
+		/**
+		 * Maps a strip to the space of the tree
+		 */
+		float[] project(int[] vector) {
+			float[] point = new float[components];
+			project(vector, point, 0);
+			return point;
+		}
+
+		private void project(int[] vector, float[] point, int offset) {
+			if (basis == null) {
+				for (int i = 0; i < dims; i++) {
+					point[offset + i] = vector[i];
+				}
+				return;
+			}
+			for (int j = 0; j < components; j++) {
+				double sum = 0;
+				int row = j * dims;
+				for (int i = 0; i < dims; i++) {
+					sum += (vector[i] - mean[i]) * basis[row + i];
+				}
+				point[offset + j] = (float) sum;
+			}
+		}
+
+		/**
+		 * Euclidean distance in the space of the tree between a point and a
+		 * candidate
+		 */
+		private double dist(float[] point, int id, int[] scratch) {
+			double sum = 0;
+			if (coords != null) {
+				int base = id * components;
+				for (int j = 0; j < components; j++) {
+					double d = point[j] - coords[base + j];
+					sum += d * d;
+				}
+			} else {
+				gather(id, scratch);
+				for (int i = 0; i < dims; i++) {
+					double d = point[i] - scratch[i];
+					sum += d * d;
+				}
+			}
+			return Math.sqrt(sum);
+		}
+
+		/**
+		 * SSD between a strip and the strip of a candidate
+		 */
+		long exactDist(int[] vector, int id) {
+			int base = ((id / cols) * textureCols + id % cols) * channels;
+			long sum = 0;
+			for (int i = 0; i < dims; i++) {
+				int d = vector[i]
+						- (texture[base + textureOffsets[i]] & 0xff);
+				sum += d * d;
+			}
+			return sum;
+		}
+
+		private void build(int start, int end, double[] dists, Random random) {
+			int[] scratch = new int[dims];
+			while (end - start > 1) {
+				// Choose a random vantage point and move it to the front
+				swap(start, start + random.nextInt(end - start), dists);
+				gather(items[start], scratch);
+				float[] vantage = project(scratch);
+				for (int i = start + 1; i < end; i++) {
+					dists[i] = dist(vantage, items[i], scratch);
+				}
+
+				// Split the rest by the median distance
+				int middle = (start + 1 + end) >>> 1;
+				select(start + 1, end, middle, dists);
+				radius[start] = (float) dists[middle];
+				split[start] = middle;
+
+				build(start + 1, middle, dists, random);
+				start = middle;
+			}
+			if (end - start == 1) {
+				split[start] = end;
+			}
+		}
+
+		/**
+		 * Partially sorts items[start, end) by dists so that the element at
+		 * position k is the one a full sort would put there.
+		 */
+		private void select(int start, int end, int k, double[] dists) {
+			int lo = start;
+			int hi = end - 1;
+			while (lo < hi) {
+				double pivot = dists[(lo + hi) >>> 1];
+				int i = lo;
+				int j = hi;
+				while (i <= j) {
+					while (dists[i] < pivot) {
+						i++;
+					}
+					while (dists[j] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i++, j--, dists);
+					}
+				}
+				if (k <= j) {
+					hi = j;
+				} else if (k >= i) {
+					lo = i;
+				} else {
+					return;
+				}
+			}
+		}
+
+		private void swap(int i, int j, double[] dists) {
+			int item = items[i];
+			items[i] = items[j];
+			items[j] = item;
+			double d = dists[i];
+			dists[i] = dists[j];
+			dists[j] = d;
+		}
+
+		/**
+		 * Returns the candidate closest to the point in the tree space
+		 */
+		int nearest(float[] point) {
+			Search search = new Search(point);
+			search.nearest(0, items.length);
+			return search.best;
+		}
+
+		/**
+		 * Returns the candidates within radius of the point in the tree
+		 * space. The first element is the number of candidates found.
+		 */
+		int[] range(float[] point, double r) {
+			Search search = new Search(point);
+			search.tau = r;
+			search.range(0, items.length);
+			search.found[0] = search.count;
+			return search.found;
+		}
+
+		/**
+		 * State of one query, so the tree can be searched concurrently
+		 */
+		private class Search {
+			private float[] point;
+			private int[] scratch = new int[dims];
+			private double tau = Double.MAX_VALUE;
+			private int best = -1;
+			private int[] found = new int[64];
+			private int count;
+
+			Search(float[] point) {
+				this.point = point;
+			}
+
+			void nearest(int start, int end) {
+				if (start >= end) {
+					return;
+				}
+				double d = dist(point, items[start], scratch);
+				if (d < tau) {
+					tau = d;
+					best = items[start];
+				}
+				int middle = split[start];
+				double mu = radius[start];
+				if (d < mu) {
+					if (d - tau <= mu) {
+						nearest(start + 1, middle);
+					}
+					if (d + tau >= mu) {
+						nearest(middle, end);
+					}
+				} else {
+					if (d + tau >= mu) {
+						nearest(middle, end);
+					}
+					if (d - tau <= mu) {
+						nearest(start + 1, middle);
+					}
+				}
+			}
+
+			void range(int start, int end) {
+				if (start >= end) {
+					return;
+				}
+				double d = dist(point, items[start], scratch);
+				if (d <= tau) {
+					if (count + 1 == found.length) {
+						found = Arrays.copyOf(found, found.length * 2);
+					}
+					found[++count] = items[start];
+				}
+				int middle = split[start];
+				double mu = radius[start];
+				if (d - tau <= mu) {
+					range(start + 1, middle);
+				}
+				if (d + tau >= mu) {
+					range(middle, end);
+				}
+			}
+		}
+	}
+}
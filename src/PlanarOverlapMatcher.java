@@ -0,0 +1,259 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * This matcher copies every channel of the texture once into its own plane
+ * of java shorts and computes the overlap SSDs with plain loops, without any
+ * call to OpenCV per candidate. The loops run along a row of candidates, so
+ * the innermost one walks both a plane and the distances contiguously and
+ * the JIT can unroll and vectorize it.
+ *
+ * The pixel array constructor and
+ * {@link #calcBandDists(double[][], short[], int, int, int, int)} call no
+ * native code, only the {@link Point} class of the OpenCV jar, so the matcher
+ * can be used on its own without the native library. A synthesis still needs
+ * it: {@link ImageQuilter} loads it and works on Mats.
+ *
+ * The distances are the same ones produced by {@link DirectOverlapMatcher}:
+ * the SSD of every channel of the left and top strips, with the corner
+ * counted in both of them.
+ */
+public class PlanarOverlapMatcher implements OverlapMatcher {
+	private short[][] planes;
+	private int textureCols;
+	private int channels;
+	private int patchSize;
+	private int overlapSize;
+	private ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of candidate rows and columns, the same size as dists.
+	 */
+	private int rows;
+	private int cols;
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public PlanarOverlapMatcher(Mat textureImage, int patchSize,
+			int overlapSize) {
+		this(ImageQuilter.texturePixels(textureImage), textureImage.rows(),
+				textureImage.cols(),
+				textureImage.channels(), patchSize, overlapSize);
+	}
+
+	/**
+	 * @param pixels
+	 *            The texture, interleaved 8 bit pixels row by row
+	 * @param textureRows
+	 * @param textureCols
+	 * @param channels
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public PlanarOverlapMatcher(byte[] pixels, int textureRows,
+			int textureCols, int channels, int patchSize, int overlapSize) {
+		this.textureCols = textureCols;
+		this.channels = channels;
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.rows = textureRows - patchSize;
+		this.cols = textureCols - patchSize;
+
+		// Split and widen once so the hot loop does not mask every pixel
+		planes = new short[channels][textureRows * textureCols];
+		for (int i = 0; i < textureRows * textureCols; i++) {
+			for (int ch = 0; ch < channels; ch++) {
+				planes[ch][i] = (short) (pixels[i * channels + ch] & 0xff);
+			}
+		}
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0, rows);
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		short[] cell = workspace.readCell(outputCell);
+		Point bestloc = calcBandDists(dists, cell, outputCell.cols(),
+				outputCell.rows(), cellCol, cellRow, rowStart, rowEnd,
+				workspace);
+		workspaces.add(workspace);
+		return bestloc;
+	}
+
+	/**
+	 * This method scores the candidates of a band of rows against an output
+	 * cell given as a plane.
+	 *
+	 * @param dists
+	 * @param cell
+	 *            The output cell, patchSize x patchSize interleaved pixels
+	 *            row by row
+	 * @param cellCol
+	 * @param cellRow
+	 * @param rowStart
+	 *            First candidate row to score
+	 * @param rowEnd
+	 *            Row after the last candidate row to score
+	 * @return the location of the best candidate
+	 */
+	public Point calcBandDists(double[][] dists, short[] cell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		Point bestloc = calcBandDists(dists, cell, patchSize, patchSize,
+				cellCol, cellRow, rowStart, rowEnd, workspace);
+		workspaces.add(workspace);
+		return bestloc;
+	}
+
+	/**
+	 * @param width
+	 *            Width (pixels) of the cell, smaller than a patch when it is
+	 *            cropped by the edge of the output
+	 * @param height
+	 *            Height (pixels) of the cell
+	 */
+	private Point calcBandDists(double[][] dists, short[] cell, int width,
+			int height, int cellCol, int cellRow, int rowStart, int rowEnd,
+			Workspace workspace) {
+		for (int y = rowStart; y < rowEnd; y++) {
+			double[] row = dists[y];
+			Arrays.fill(row, 0, cols, 0.0);
+
+			// Calculate ssd of left overlap
+			if (cellCol != 0) {
+				addStripDists(row, cell, y, overlapSize, height,
+						workspace.acc);
+			}
+
+			// Calculate ssd of top overlap
+			if (cellRow != 0) {
+				addStripDists(row, cell, y, width, overlapSize,
+						workspace.acc);
+			}
+		}
+
+		// Look for the best one in the same order as the direct matcher
+		double best = Double.MAX_VALUE;
+		Point bestloc = null;
+		for (int y = rowStart; y < rowEnd; y++) {
+			for (int x = 0; x < cols; x++) {
+				if (dists[y][x] < best) {
+					best = dists[y][x];
+					bestloc = new Point(x, y);
+				}
+			}
+		}
+		return bestloc;
+	}
+
+	/**
+	 * This method adds to a row of dists the SSD between the top left strip
+	 * of the output cell with the given size and the same strip of every
+	 * candidate of the row, over every channel.
+	 *
+	 * @param dists
+	 *            Distances of candidate row y
+	 * @param cell
+	 * @param y
+	 * @param width
+	 *            Width of the strip
+	 * @param height
+	 *            Height of the strip
+	 * @param acc
+	 *            Sums of one strip row for every candidate
+	 */
+	private void addStripDists(double[] dists, short[] cell, int y,
+			int width, int height, int[] acc) {
+		for (int r = 0; r < height; r++) {
+			// A strip row sums at most patchSize squares per channel, it
+			// fits in an int
+			Arrays.fill(acc, 0, cols, 0);
+			int offset = (y + r) * textureCols;
+			for (int c = 0; c < width; c++) {
+				int from = offset + c;
+				for (int ch = 0; ch < channels; ch++) {
+					int a = cell[(r * patchSize + c) * channels + ch];
+					short[] plane = planes[ch];
+					for (int x = 0; x < cols; x++) {
+						int d = a - plane[from + x];
+						acc[x] += d * d;
+					}
+				}
+			}
+			for (int x = 0; x < cols; x++) {
+				dists[x] += acc[x];
+			}
+		}
+	}
+
+	@Override
+	public int candidateRows() {
+		return rows;
+	}
+
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		return 0;
+	}
+
+	@Override
+	public void release() {
+		// Nothing native is held, only the pooled java buffers
+		workspaces.clear();
+	}
+
+	/**
+	 * @return an estimate of the memory (bytes) held by the matcher
+	 */
+	public long byteSize() {
+		return planes.length * planes[0].length * 2L;
+	}
+
+	/**
+	 * Buffers reused by every call. Calls running at the same time take
+	 * different workspaces.
+	 */
+	private class Workspace {
+		private int[] acc = new int[cols];
+		private short[] cell = new short[patchSize * patchSize * channels];
+		private byte[] row = new byte[0];
+
+		short[] readCell(Mat outputCell) {
+			int channels = outputCell.channels();
+			if (row.length != patchSize * channels) {
+				row = new byte[patchSize * channels];
+			}
+			// A submat is not continuous, so it is read one row at a time
+			for (int r = 0; r < outputCell.rows(); r++) {
+				outputCell.get(r, 0, row);
+				for (int i = 0; i < outputCell.cols() * channels; i++) {
+					cell[r * patchSize * channels + i] = (short) (row[i] & 0xff);
+				}
+			}
+			return cell;
+		}
+	}
+}
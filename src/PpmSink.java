@@ -0,0 +1,51 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.opencv.core.Mat;
+
+/**
+ * Writes the streamed rows as a binary PPM (P6) image, so outputs that do not
+ * fit in memory can be written to disk.
+ */
+public class PpmSink implements QuiltSink {
+	private OutputStream out;
+	private byte[] line;
+
+	/**
+	 * @param out
+	 *            The stream to write the image. It is closed by
+	 *            {@link #end()}.
+	 */
+	public PpmSink(OutputStream out) {
+		this.out = new BufferedOutputStream(out, 1 << 16);
+	}
+
+	@Override
+	public void begin(int width, int height) throws IOException {
+		line = new byte[width * 3];
+		String header = "P6\n" + width + " " + height + "\n255\n";
+		out.write(header.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	public void writeRows(Mat rows, int y) throws IOException {
+		for (int r = 0; r < rows.rows(); r++) {
+			rows.get(r, 0, line);
+
+			// OpenCV stores BGR and PPM expects RGB
+			for (int i = 0; i < line.length; i += 3) {
+				byte b = line[i];
+				line[i] = line[i + 2];
+				line[i + 2] = b;
+			}
+			out.write(line);
+		}
+	}
+
+	@Override
+	public void end() throws IOException {
+		out.close();
+	}
+}
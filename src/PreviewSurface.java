@@ -0,0 +1,230 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * A progress sink that keeps a live preview of the output. It holds a single
+ * image of the size of the output, reused while the size does not change,
+ * and only the cells reported as placed are copied into it, on the synthesis
+ * thread. The component that shows it repaints the regions changed since the
+ * previous frame, at most a number of frames per second, on the event
+ * dispatch thread, so a fast synthesis does not flood it with repaints.
+ *
+ * Nothing needs a display until {@link #getComponent()} is shown, and
+ * {@link #render(BufferedImage)} draws the preview in any image, so it also
+ * works headless.
+ */
+public class PreviewSurface implements ProgressSink, AutoCloseable {
+	public static int DEFAULT_FRAMES_PER_SECOND = 20;
+
+	private int framesPerSecond;
+	private BufferedImage image;
+	private byte[] imagePixels;
+	/**
+	 * The data address of the output being previewed, to notice a new
+	 * synthesis of the same size
+	 */
+	private long outputAddress;
+	private byte[] rowPixels = new byte[0];
+	/**
+	 * Region changed since the last repaint, empty when there is none
+	 */
+	private Rectangle dirty = new Rectangle();
+	private boolean resized;
+	private JComponent component;
+	private Timer timer;
+
+	public PreviewSurface() {
+		this(DEFAULT_FRAMES_PER_SECOND);
+	}
+
+	/**
+	 * @param framesPerSecond
+	 *            Maximum number of repaints per second of the component
+	 */
+	public PreviewSurface(int framesPerSecond) {
+		if (framesPerSecond < 1) {
+			throw new IllegalArgumentException(
+					"Frames per second must be positive");
+		}
+		this.framesPerSecond = framesPerSecond;
+	}
+
+	@Override
+	public synchronized void cellPlaced(Mat output, Rect cell) {
+		if (output.type() != CvType.CV_8UC3) {
+			throw new IllegalArgumentException("Output must be CV_8UC3");
+		}
+		boolean sameSize = image != null && image.getWidth() == output.cols()
+				&& image.getHeight() == output.rows();
+		if (!sameSize) {
+			image = new BufferedImage(output.cols(), output.rows(),
+					BufferedImage.TYPE_3BYTE_BGR);
+			imagePixels = ((DataBufferByte) image.getRaster().getDataBuffer())
+					.getData();
+			resized = true;
+		}
+		if (!sameSize || outputAddress != output.dataAddr()) {
+			// A new output, every pixel of it is copied once
+			outputAddress = output.dataAddr();
+			copy(output, new Rect(0, 0, output.cols(), output.rows()));
+			return;
+		}
+		copy(output, cell);
+	}
+
+	/**
+	 * This method copies a region of the output in the image and adds it to
+	 * the dirty region.
+	 *
+	 * @param output
+	 * @param region
+	 */
+	private void copy(Mat output, Rect region) {
+		int stride = image.getWidth() * 3;
+		int rowBytes = region.width * 3;
+		if (rowPixels.length != rowBytes) {
+			rowPixels = new byte[rowBytes];
+		}
+		for (int r = region.y; r < region.y + region.height; r++) {
+			// The rows of the region are apart in the output
+			output.get(r, region.x, rowPixels);
+			System.arraycopy(rowPixels, 0, imagePixels, r * stride + region.x
+					* 3, rowBytes);
+		}
+		Rectangle changed = new Rectangle(region.x, region.y, region.width,
+				region.height);
+		if (dirty.isEmpty()) {
+			dirty = changed;
+		} else {
+			dirty.add(changed);
+		}
+	}
+
+	@Override
+	public void progress(Mat output, int cellsPlaced, int cellCount) {
+		// The cells are copied as they are placed
+	}
+
+	/**
+	 * This method draws the preview in an image, scaled to its size. It does
+	 * not need a display.
+	 *
+	 * @param target
+	 */
+	public synchronized void render(BufferedImage target) {
+		Graphics2D g = target.createGraphics();
+		try {
+			if (image != null) {
+				g.drawImage(image, 0, 0, target.getWidth(), target.getHeight(),
+						null);
+			}
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * @return the size of the output being previewed, null before the first
+	 *         cell
+	 */
+	public synchronized Dimension getSize() {
+		return image == null ? null : new Dimension(image.getWidth(),
+				image.getHeight());
+	}
+
+	/**
+	 * This method gives the component showing the preview. It repaints
+	 * itself while it is in a window.
+	 *
+	 * @return
+	 */
+	public synchronized JComponent getComponent() {
+		if (component == null) {
+			component = new JComponent() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Dimension getPreferredSize() {
+					Dimension size = PreviewSurface.this.getSize();
+					return size != null ? size : new Dimension(1, 1);
+				}
+
+				@Override
+				public void addNotify() {
+					super.addNotify();
+					timer.start();
+				}
+
+				@Override
+				public void removeNotify() {
+					timer.stop();
+					super.removeNotify();
+				}
+
+				@Override
+				protected void paintComponent(Graphics g) {
+					synchronized (PreviewSurface.this) {
+						if (image != null) {
+							g.drawImage(image, 0, 0, null);
+						}
+					}
+				}
+			};
+			timer = new Timer(1000 / framesPerSecond, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					repaint();
+				}
+			});
+		}
+		return component;
+	}
+
+	/**
+	 * This method repaints the dirty region, on the event dispatch thread.
+	 */
+	private void repaint() {
+		Rectangle region;
+		boolean relayout;
+		synchronized (this) {
+			if (dirty.isEmpty()) {
+				return;
+			}
+			region = dirty;
+			relayout = resized;
+			dirty = new Rectangle();
+			resized = false;
+		}
+		if (relayout) {
+			// Only a new size changes the layout
+			component.revalidate();
+			component.repaint();
+		} else {
+			component.repaint(region);
+		}
+	}
+
+	/**
+	 * This method stops the repaints, even if the component is still in a
+	 * window. The image stays, so the preview can still be rendered.
+	 */
+	@Override
+	public synchronized void close() {
+		if (timer != null) {
+			timer.stop();
+		}
+	}
+}
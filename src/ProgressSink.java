@@ -0,0 +1,39 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Receives the output of an {@link ImageQuilter} while it is being
+ * synthesized, for example to save snapshots of the process.
+ */
+public interface ProgressSink {
+
+	/**
+	 * Called after output cells are placed. It runs on the synthesis thread,
+	 * so it should return quickly.
+	 * 
+	 * @param output
+	 *            The output being synthesized. It keeps changing after the
+	 *            call, so it must be copied if it is needed later.
+	 * @param cellsPlaced
+	 *            Number of output cells placed so far
+	 * @param cellCount
+	 *            Number of output cells of the whole output
+	 */
+	void progress(Mat output, int cellsPlaced, int cellCount);
+
+	/**
+	 * Called after every output cell is placed, before the progress that
+	 * counts it, with the region of the output the cell changed. Nothing
+	 * else changes between the calls, except the pixels copied in the output
+	 * before the first cell, as the texture given to
+	 * {@link ImageQuilter#extend(Mat, int, int)}. It runs on the synthesis
+	 * thread too. It does nothing by default.
+	 * 
+	 * @param output
+	 *            The output being synthesized
+	 * @param cell
+	 *            The region of the output covered by the cell
+	 */
+	default void cellPlaced(Mat output, Rect cell) {
+	}
+}
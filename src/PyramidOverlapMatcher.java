@@ -0,0 +1,322 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This matcher scores the candidates coarse to fine. The texture is reduced
+ * once to a pyramid level 2^levels times smaller and every candidate is
+ * scored there, on patches 2^levels times smaller. Only the best topK coarse
+ * locations are kept and the full resolution candidates around each of them
+ * are scored exactly. The other candidates are left at -1 in dists, which
+ * marks them as not scored.
+ *
+ * The refined distances are the same ones produced by
+ * {@link DirectOverlapMatcher}. More levels make the coarse pass cheaper and
+ * a bigger topK makes it less likely to miss the best candidate.
+ */
+public class PyramidOverlapMatcher implements OverlapMatcher {
+	private int patchSize;
+	private int overlapSize;
+	private int levels;
+	private int topK;
+	private int scale;
+
+	/**
+	 * The full resolution texture, interleaved
+	 */
+	private byte[] texture;
+	private int textureCols;
+	private int channels;
+	private int rows;
+	private int cols;
+
+	private Mat coarseTexture;
+	private TemplateOverlapMatcher coarseMatcher;
+	private int coarseRows;
+	private int coarseCols;
+	private ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param levels
+	 *            Number of times the texture is halved for the coarse pass.
+	 *            One level keeps almost every best candidate, more levels are
+	 *            faster but miss more of them.
+	 * @param topK
+	 *            Number of coarse locations refined at full resolution
+	 */
+	public PyramidOverlapMatcher(Mat textureImage, int patchSize,
+			int overlapSize, int levels, int topK) {
+		if (levels < 1 || topK < 1) {
+			throw new IllegalArgumentException(
+					"Levels and topK must be positive");
+		}
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.levels = levels;
+		this.topK = topK;
+		this.scale = 1 << levels;
+		this.rows = textureImage.rows() - patchSize;
+		this.cols = textureImage.cols() - patchSize;
+
+		int coarsePatch = patchSize >> levels;
+		int coarseOverlap = Math.max(1, overlapSize >> levels);
+		if (coarsePatch <= coarseOverlap) {
+			throw new IllegalArgumentException("Too many levels for patch size "
+					+ patchSize);
+		}
+
+		channels = textureImage.channels();
+		texture = ImageQuilter.texturePixels(textureImage);
+		textureCols = textureImage.cols();
+
+		// Every coarse pixel is the mean of a block of scale x scale pixels, so
+		// the coarse overlap strips only mix pixels of the full resolution
+		// overlap and not the unfilled part of the output cell
+		coarseTexture = new Mat();
+		Imgproc.resize(textureImage, coarseTexture, new Size(
+				textureImage.cols() / scale, textureImage.rows() / scale), 0, 0,
+				Imgproc.INTER_AREA);
+		coarseMatcher = new TemplateOverlapMatcher(coarseTexture, coarsePatch,
+				coarseOverlap);
+		coarseRows = coarseMatcher.candidateRows();
+		coarseCols = coarseTexture.cols() - coarsePatch;
+		if (coarseRows <= 0 || coarseCols <= 0) {
+			release();
+			throw new IllegalArgumentException(
+					"Too many levels for texture size " + textureImage.cols()
+							+ "x" + textureImage.rows());
+		}
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0, rows);
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		for (int y = rowStart; y < rowEnd; y++) {
+			Arrays.fill(dists[y], 0, cols, -1.0);
+		}
+
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+
+		// The cell may be cropped by the edge of the output
+		OverlapSsd.readCell(outputCell, workspace.row, workspace.cell,
+				patchSize * channels);
+		Point bestloc = null;
+
+		// Score the coarse candidates that cover the band
+		int coarseStart = Math.min(rowStart / scale, coarseRows);
+		int coarseEnd = Math.min((rowEnd + scale - 1) / scale, coarseRows);
+		if (coarseStart == coarseEnd) {
+			// The band is below the last coarse row, score it in full
+			if (rowStart < rowEnd) {
+				bestloc = refine(dists, workspace, outputCell, cellCol,
+						cellRow, rowStart, rowEnd - 1, 0, cols - 1, bestloc);
+			}
+			workspaces.add(workspace);
+			return bestloc;
+		}
+		Mat coarseCell = workspace.coarseCell(outputCell);
+		coarseMatcher.calcBandDists(workspace.coarseDists, coarseCell,
+				cellCol, cellRow, coarseStart, coarseEnd);
+		int found = workspace.selectTopK(coarseStart, coarseEnd);
+
+		// Refine the full resolution neighbours of every coarse location
+		for (int k = 0; k < found; k++) {
+			int id = workspace.heapIds[k];
+			int cx = (id % coarseCols) * scale;
+			int cy = (id / coarseCols) * scale;
+			bestloc = refine(dists, workspace, outputCell, cellCol, cellRow,
+					Math.max(rowStart, cy - scale), Math.min(rowEnd - 1, cy
+							+ scale), Math.max(0, cx - scale), Math.min(
+							cols - 1, cx + scale), bestloc);
+		}
+		workspaces.add(workspace);
+		return bestloc;
+	}
+
+	/**
+	 * This method scores exactly the candidates of a rectangle that are not
+	 * scored yet.
+	 *
+	 * @param dists
+	 * @param workspace
+	 *            Holds the output cell
+	 * @param outputCell
+	 * @param cellCol
+	 * @param cellRow
+	 * @param yFrom
+	 *            First candidate row
+	 * @param yTo
+	 *            Last candidate row
+	 * @param xFrom
+	 *            First candidate column
+	 * @param xTo
+	 *            Last candidate column
+	 * @param bestloc
+	 *            The best location scored before, or null
+	 * @return the best location, including the ones scored before
+	 */
+	private Point refine(double[][] dists, Workspace workspace,
+			Mat outputCell, int cellCol, int cellRow, int yFrom, int yTo,
+			int xFrom, int xTo, Point bestloc) {
+		int width = outputCell.cols();
+		int height = outputCell.rows();
+		int cellStride = patchSize * channels;
+		int textureStride = textureCols * channels;
+		double best = bestloc != null ? dists[(int) bestloc.y][(int) bestloc.x]
+				: Double.MAX_VALUE;
+		for (int y = yFrom; y <= yTo; y++) {
+			for (int x = xFrom; x <= xTo; x++) {
+				if (dists[y][x] >= 0) {
+					// Already refined around another coarse location
+					continue;
+				}
+				double sum = OverlapSsd.overlapSsd(workspace.cell, cellStride,
+						texture, textureStride, y * textureStride + x
+								* channels, width, height, overlapSize,
+						channels, cellCol != 0, cellRow != 0);
+				dists[y][x] = sum;
+				if (sum < best || (sum == best && isBefore(x, y, bestloc))) {
+					best = sum;
+					bestloc = new Point(x, y);
+				}
+			}
+		}
+		return bestloc;
+	}
+
+	@Override
+	public int candidateRows() {
+		return rows;
+	}
+
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		return 0;
+	}
+
+	@Override
+	public void release() {
+		Workspace workspace;
+		while ((workspace = workspaces.poll()) != null) {
+			workspace.release();
+		}
+		coarseMatcher.release();
+		coarseTexture.release();
+	}
+
+	/**
+	 * Ties go to the first location in raster order, as in the other
+	 * matchers.
+	 */
+	private static boolean isBefore(int x, int y, Point loc) {
+		return y < loc.y || (y == loc.y && x < loc.x);
+	}
+
+	/**
+	 * Buffers reused by every call. Calls running at the same time take
+	 * different workspaces.
+	 */
+	private class Workspace {
+		private double[][] coarseDists = new double[coarseRows][coarseCols];
+		private Mat coarseCell = new Mat();
+		private byte[] cell = new byte[patchSize * patchSize * channels];
+		private byte[] row = new byte[patchSize * channels];
+
+		/**
+		 * Max-heap of the best coarse locations, the worst one on top
+		 */
+		private double[] heapKeys = new double[topK];
+		private int[] heapIds = new int[topK];
+
+		Mat coarseCell(Mat outputCell) {
+			// A cropped cell keeps at least the coarse overlap
+			int overlap = Math.max(1, overlapSize / scale);
+			Imgproc.resize(outputCell, coarseCell, new Size(Math.max(overlap,
+					outputCell.cols() / scale), Math.max(overlap,
+					outputCell.rows() / scale)), 0, 0, Imgproc.INTER_AREA);
+			return coarseCell;
+		}
+
+		/**
+		 * This method keeps the topK coarse locations with the lowest
+		 * distance in the heap, ties going to the first in raster order.
+		 *
+		 * @param rowStart
+		 * @param rowEnd
+		 * @return the number of locations kept
+		 */
+		int selectTopK(int rowStart, int rowEnd) {
+			int size = 0;
+			for (int y = rowStart; y < rowEnd; y++) {
+				double[] row = coarseDists[y];
+				for (int x = 0; x < coarseCols; x++) {
+					double val = row[x];
+					if (size < topK) {
+						siftUp(size++, val, y * coarseCols + x);
+					} else if (val < heapKeys[0]) {
+						siftDown(size, val, y * coarseCols + x);
+					}
+				}
+			}
+			return size;
+		}
+
+		private void siftUp(int i, double key, int id) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapKeys[parent] >= key) {
+					break;
+				}
+				heapKeys[i] = heapKeys[parent];
+				heapIds[i] = heapIds[parent];
+				i = parent;
+			}
+			heapKeys[i] = key;
+			heapIds[i] = id;
+		}
+
+		private void siftDown(int size, double key, int id) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && heapKeys[child + 1] > heapKeys[child]) {
+					child++;
+				}
+				if (heapKeys[child] <= key) {
+					break;
+				}
+				heapKeys[i] = heapKeys[child];
+				heapIds[i] = heapIds[child];
+				i = child;
+			}
+			heapKeys[i] = key;
+			heapIds[i] = id;
+		}
+
+		void release() {
+			coarseCell.release();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * A synthesis request run by {@link BatchQuilter}.
+ */
+public class QuiltJob {
+	private String texturePath;
+	private int outWidth;
+	private int outHeight;
+	private int patchSize;
+	private int overlapSize;
+	private long seed;
+
+	/**
+	 * @param texturePath
+	 *            File of the texture to sample from.
+	 * @param outWidth
+	 *            Width (pixels) of the output.
+	 * @param outHeight
+	 *            Height (pixels) of the output.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param seed
+	 *            Seed of the random choices of the synthesis.
+	 */
+	public QuiltJob(String texturePath, int outWidth, int outHeight,
+			int patchSize, int overlapSize, long seed) {
+		this.texturePath = texturePath;
+		this.outWidth = outWidth;
+		this.outHeight = outHeight;
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.seed = seed;
+	}
+
+	public String getTexturePath() {
+		return texturePath;
+	}
+
+	public int getOutWidth() {
+		return outWidth;
+	}
+
+	public int getOutHeight() {
+		return outHeight;
+	}
+
+	public int getPatchSize() {
+		return patchSize;
+	}
+
+	public int getOverlapSize() {
+		return overlapSize;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+}
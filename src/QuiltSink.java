@@ -0,0 +1,36 @@
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+
+/**
+ * Receives the rows of a texture synthesized by
+ * {@link ImageQuilter#synthesize(int, int, QuiltSink)}, from top to bottom.
+ */
+public interface QuiltSink {
+
+	/**
+	 * Called once before any row is written.
+	 * 
+	 * @param width
+	 *            Width (pixels) of the whole output
+	 * @param height
+	 *            Height (pixels) of the whole output
+	 */
+	void begin(int width, int height) throws IOException;
+
+	/**
+	 * Called with every band of finished rows. The Mat is reused by the
+	 * synthesizer, so it must be copied if it is needed after the call.
+	 * 
+	 * @param rows
+	 *            The finished rows, as wide as the whole output (CV_8UC3)
+	 * @param y
+	 *            Row of the output where the band starts
+	 */
+	void writeRows(Mat rows, int y) throws IOException;
+
+	/**
+	 * Called once after the last row has been written.
+	 */
+	void end() throws IOException;
+}
@@ -0,0 +1,220 @@
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * A directory of synthesized images addressed by their content: the hash of
+ * the texture, the synthesis parameters and the seed. A seeded synthesis is
+ * deterministic, so a repeated request can be read from here instead of
+ * synthesized again. The images are stored as PNG, which is lossless. When
+ * the directory grows over its size limit the least recently used images
+ * are deleted.
+ *
+ * Several caches, even in several processes, may share a directory: images
+ * are written to a temporary file and renamed in place.
+ */
+public class ResultCache {
+	private static final String EXTENSION = ".png";
+
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * @param directory
+	 *            Where the images are stored, it is created if needed
+	 * @param maxBytes
+	 *            Size (bytes) the stored images may take
+	 */
+	public ResultCache(File directory, long maxBytes) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create cache directory "
+					+ directory);
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * This method hashes the content of a texture file.
+	 *
+	 * @param textureFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static String textureHash(File textureFile) throws IOException {
+		return hex(digest().digest(Files.readAllBytes(textureFile.toPath())));
+	}
+
+	/**
+	 * This method hashes the pixels of a decoded texture.
+	 *
+	 * @param textureImage
+	 * @return
+	 */
+	public static String textureHash(Mat textureImage) {
+		MessageDigest digest = digest();
+		digest.update((textureImage.rows() + "x" + textureImage.cols() + "x"
+				+ textureImage.type()).getBytes(StandardCharsets.UTF_8));
+		byte[] row = new byte[(int) (textureImage.cols() * textureImage
+				.elemSize())];
+		for (int r = 0; r < textureImage.rows(); r++) {
+			textureImage.get(r, 0, row);
+			digest.update(row);
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * This method builds the key of a synthesis.
+	 *
+	 * @param textureHash
+	 * @param params
+	 *            Every parameter that changes the synthesized image,
+	 *            including the seed
+	 * @return
+	 */
+	public static String key(String textureHash, Object... params) {
+		StringBuilder text = new StringBuilder(textureHash);
+		for (Object param : params) {
+			text.append('|').append(param);
+		}
+		return hex(digest().digest(
+				text.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * This method reads a stored image.
+	 *
+	 * @param key
+	 * @return the image, or null if it is not stored
+	 */
+	public Mat get(String key) {
+		File file = file(key);
+		byte[] encoded;
+		try {
+			encoded = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+
+		// Keep recently used images away from eviction
+		file.setLastModified(System.currentTimeMillis());
+		MatOfByte buffer = new MatOfByte(encoded);
+		Mat image = Imgcodecs.imdecode(buffer, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		buffer.release();
+		return image.empty() ? null : image;
+	}
+
+	/**
+	 * This method stores an image, deleting the least recently used ones if
+	 * the directory gets too big.
+	 *
+	 * @param key
+	 * @param image
+	 * @throws IOException
+	 *             If the image cannot be written
+	 */
+	public void put(String key, Mat image) throws IOException {
+		MatOfByte buffer = new MatOfByte();
+		if (!Imgcodecs.imencode(EXTENSION, image, buffer)) {
+			buffer.release();
+			throw new IOException("Cannot encode image " + key);
+		}
+		byte[] encoded = buffer.toArray();
+		buffer.release();
+
+		File temp = File.createTempFile(key, ".tmp", directory);
+		try {
+			Files.write(temp.toPath(), encoded);
+			Files.move(temp.toPath(), file(key).toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		evict();
+	}
+
+	/**
+	 * @return the size (bytes) of the stored images
+	 */
+	public long size() {
+		long size = 0;
+		for (File file : images()) {
+			size += file.length();
+		}
+		return size;
+	}
+
+	private synchronized void evict() {
+		File[] files = images();
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		if (size <= maxBytes) {
+			return;
+		}
+
+		// Take the times once, other processes may touch the files meanwhile
+		final Map<File, Long> times = new HashMap<>();
+		for (File file : files) {
+			times.put(file, file.lastModified());
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(times.get(a), times.get(b));
+			}
+		});
+		for (int i = 0; i < files.length && size > maxBytes; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				size -= length;
+			}
+		}
+	}
+
+	private File[] images() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+		return files != null ? files : new File[0];
+	}
+
+	private File file(String key) {
+		return new File(directory, key + EXTENSION);
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder text = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			text.append(String.format("%02x", b & 0xff));
+		}
+		return text.toString();
+	}
+}
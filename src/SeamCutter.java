@@ -0,0 +1,298 @@
+import java.util.Arrays;
+
+/**
+ * Cuts the overlap between a patch and the output along the minimum error
+ * boundary. The left overlap is cut by a vertical seam and the top overlap by
+ * a horizontal one. When the patch has both, the two seams meet at the spot
+ * of the corner square that makes the whole L-shaped cut cheapest: the
+ * vertical seam runs from there to the bottom and the horizontal one to the
+ * right. The patch is kept to the right of the vertical seam and below the
+ * horizontal one.
+ *
+ * A cell on the right or bottom edge of the output may be narrower or shorter
+ * than the patch. The seams then only pay for the pixels inside the cell.
+ *
+ * The error of a pixel is the squared difference summed over its channels.
+ * Every buffer is allocated once, so a cutter can be reused for any number of
+ * patches of the same size.
+ */
+public class SeamCutter {
+	private int patchSize;
+	private int overlapSize;
+
+	/**
+	 * Finds the vertical seam over the left overlap turned upside down, so
+	 * its destination row is the bottom row of the patch
+	 */
+	private MinPathFinder verticalFinder;
+	/**
+	 * Finds the horizontal seam over the top overlap turned so its rows are
+	 * the patch columns from right to left
+	 */
+	private MinPathFinder horizontalFinder;
+	private double[] verticalErrors;
+	private double[] horizontalErrors;
+
+	/**
+	 * First column taken from the patch in every row, below the corner
+	 */
+	private int[] seamCol;
+	/**
+	 * First row taken from the patch in every column, right of the corner
+	 */
+	private int[] seamRow;
+	private int cornerRow;
+	private int cornerCol;
+	private boolean left;
+	private boolean top;
+	private int seamLength;
+
+	/**
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public SeamCutter(int patchSize, int overlapSize) {
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		verticalFinder = new MinPathFinder(patchSize, overlapSize);
+		horizontalFinder = new MinPathFinder(patchSize, overlapSize);
+		verticalErrors = new double[patchSize * overlapSize];
+		horizontalErrors = new double[patchSize * overlapSize];
+		seamCol = new int[patchSize];
+		seamRow = new int[patchSize];
+	}
+
+	/**
+	 * This method finds the seams between the output cell and a patch.
+	 * Both images are given as interleaved 8 bit pixels, row by row.
+	 *
+	 * @param output
+	 * @param outputOffset
+	 *            Index of the top left pixel of the output cell
+	 * @param outputStride
+	 *            Number of bytes of an output row
+	 * @param source
+	 * @param sourceOffset
+	 *            Index of the top left pixel of the patch
+	 * @param sourceStride
+	 *            Number of bytes of a source row
+	 * @param channels
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @param allowHorizontal
+	 *            Whether a seam may run along the overlap for a while
+	 * @return the sum of the errors along the seams
+	 */
+	public double cut(byte[] output, int outputOffset, int outputStride,
+			byte[] source, int sourceOffset, int sourceStride, int channels,
+			boolean left, boolean top, boolean allowHorizontal) {
+		return cut(output, outputOffset, outputStride, source, sourceOffset,
+				sourceStride, channels, patchSize, patchSize, left, top,
+				allowHorizontal);
+	}
+
+	/**
+	 * This method finds the seams between an output cell cropped by the edge
+	 * of the output and a patch. The pixels of the patch outside the cell
+	 * cost nothing, so the seams cross them freely and the cost is the one
+	 * of the best seams inside the cell.
+	 *
+	 * @param output
+	 * @param outputOffset
+	 *            Index of the top left pixel of the output cell
+	 * @param outputStride
+	 *            Number of bytes of an output row
+	 * @param source
+	 * @param sourceOffset
+	 *            Index of the top left pixel of the patch
+	 * @param sourceStride
+	 *            Number of bytes of a source row
+	 * @param channels
+	 * @param width
+	 *            Width (pixels) of the output cell, at most the patch size
+	 * @param height
+	 *            Height (pixels) of the output cell, at most the patch size
+	 * @param left
+	 *            Whether the cell has a left overlap
+	 * @param top
+	 *            Whether the cell has a top overlap
+	 * @param allowHorizontal
+	 *            Whether a seam may run along the overlap for a while
+	 * @return the sum of the errors along the seams
+	 */
+	public double cut(byte[] output, int outputOffset, int outputStride,
+			byte[] source, int sourceOffset, int sourceStride, int channels,
+			int width, int height, boolean left, boolean top,
+			boolean allowHorizontal) {
+		this.left = left;
+		this.top = top;
+		int last = patchSize - 1;
+
+		if (left) {
+			for (int fr = 0; fr < patchSize; fr++) {
+				int r = last - fr;
+				if (r >= height) {
+					Arrays.fill(verticalErrors, fr * overlapSize, (fr + 1)
+							* overlapSize, 0.0);
+					continue;
+				}
+				for (int c = 0; c < overlapSize; c++) {
+					verticalErrors[fr * overlapSize + c] = error(output,
+							outputOffset + r * outputStride + c * channels,
+							source, sourceOffset + r * sourceStride + c
+									* channels, channels);
+				}
+			}
+			verticalFinder.find(verticalErrors, patchSize, overlapSize,
+					allowHorizontal);
+		}
+		if (top) {
+			for (int fr = 0; fr < patchSize; fr++) {
+				int c = last - fr;
+				if (c >= width) {
+					Arrays.fill(horizontalErrors, fr * overlapSize, (fr + 1)
+							* overlapSize, 0.0);
+					continue;
+				}
+				for (int r = 0; r < overlapSize; r++) {
+					horizontalErrors[fr * overlapSize + r] = error(output,
+							outputOffset + r * outputStride + c * channels,
+							source, sourceOffset + r * sourceStride + c
+									* channels, channels);
+				}
+			}
+			horizontalFinder.find(horizontalErrors, patchSize, overlapSize,
+					allowHorizontal);
+		}
+
+		double cost;
+		if (left && top) {
+			// Both seams go through the meeting spot, count it once
+			cost = Double.MAX_VALUE;
+			for (int r = 0; r < overlapSize; r++) {
+				for (int c = 0; c < overlapSize; c++) {
+					double total = verticalFinder.costOf(last - r, c)
+							+ horizontalFinder.costOf(last - c, r)
+							- verticalErrors[(last - r) * overlapSize + c];
+					if (total < cost) {
+						cost = total;
+						cornerRow = r;
+						cornerCol = c;
+					}
+				}
+			}
+		} else if (left) {
+			cornerRow = 0;
+			cornerCol = verticalFinder.bestSourceCol();
+			cost = verticalFinder.costOf(last, cornerCol);
+		} else if (top) {
+			cornerCol = 0;
+			cornerRow = horizontalFinder.bestSourceCol();
+			cost = horizontalFinder.costOf(last, cornerRow);
+		} else {
+			cornerRow = 0;
+			cornerCol = 0;
+			cost = 0;
+		}
+
+		seamLength = 0;
+		if (left) {
+			seamLength += trace(verticalFinder, cornerRow, cornerCol, seamCol,
+					height);
+		}
+		if (top) {
+			seamLength += trace(horizontalFinder, cornerCol, cornerRow, seamRow,
+					width);
+		}
+		if (left && top) {
+			seamLength--;
+		}
+		return cost;
+	}
+
+	/**
+	 * This method fills a patchSize x patchSize mask, row by row, with 1
+	 * where the patch is kept and 0 where the output is kept.
+	 *
+	 * @param mask
+	 */
+	public void mask(byte[] mask) {
+		for (int r = 0; r < patchSize; r++) {
+			for (int c = 0; c < patchSize; c++) {
+				boolean right = !left
+						|| (r >= cornerRow ? c >= seamCol[r] : c >= cornerCol);
+				boolean below = !top
+						|| (c >= cornerCol ? r >= seamRow[c] : r >= cornerRow);
+				mask[r * patchSize + c] = (byte) (right && below ? 1 : 0);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of pixels along the seams of the last cut
+	 */
+	public int getSeamLength() {
+		return seamLength;
+	}
+
+	public int getCornerRow() {
+		return cornerRow;
+	}
+
+	public int getCornerCol() {
+		return cornerCol;
+	}
+
+	/**
+	 * This method follows a seam from the meeting spot to the far side of the
+	 * patch, keeping the first overlap position it visits in every patch row
+	 * (or column).
+	 *
+	 * @param finder
+	 * @param start
+	 *            Patch row (or column) of the meeting spot
+	 * @param startPos
+	 *            Position of the meeting spot across the overlap
+	 * @param seam
+	 * @param end
+	 *            Patch row (or column) where the cell ends
+	 * @return the number of pixels of the seam inside the cell
+	 */
+	private int trace(MinPathFinder finder, int start, int startPos,
+			int[] seam, int end) {
+		int last = patchSize - 1;
+		Arrays.fill(seam, start, patchSize, Integer.MAX_VALUE);
+		int fr = last - start;
+		int pos = startPos;
+		int length = 0;
+		while (true) {
+			int line = last - fr;
+			seam[line] = Math.min(seam[line], pos);
+			if (line < end) {
+				length++;
+			}
+			if (fr == 0) {
+				return length;
+			}
+			int next = finder.next(fr, pos);
+			if (!finder.isSideways(fr, pos)) {
+				fr--;
+			}
+			pos = next;
+		}
+	}
+
+	private static double error(byte[] a, int aOffset, byte[] b, int bOffset,
+			int channels) {
+		int sum = 0;
+		for (int ch = 0; ch < channels; ch++) {
+			int d = (a[aOffset + ch] & 0xff) - (b[bOffset + ch] & 0xff);
+			sum += d * d;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * A progress sink that saves a snapshot of the output every few cells. The
+ * snapshots are copied on the synthesis thread and written by a background
+ * thread, so the synthesis does not wait for the encoding or the disk. When
+ * the writer falls behind and its queue is full, snapshots are dropped
+ * instead of blocking the synthesis.
+ */
+public class SnapshotWriter implements ProgressSink, AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(SnapshotWriter.class
+			.getName());
+
+	/**
+	 * Lossless formats of the snapshots
+	 */
+	public enum Format {
+		PNG, PPM
+	}
+
+	/**
+	 * Marks the end of the queue
+	 */
+	private static final Snapshot END = new Snapshot(null, 0);
+	/**
+	 * Time (seconds) {@link #close()} waits for the queued snapshots
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+	private File directory;
+	private String prefix;
+	private Format format;
+	private int interval;
+	private int lastCells;
+	private int dropped;
+	private boolean closed;
+	private BlockingQueue<Snapshot> queue;
+	private Thread writer;
+
+	/**
+	 * @param directory
+	 *            Where the snapshots are written, it is created if needed
+	 * @param prefix
+	 *            Start of the file names, followed by the number of cells
+	 *            placed
+	 * @param format
+	 * @param interval
+	 *            Number of cells placed between snapshots
+	 * @param queueSize
+	 *            Number of snapshots waiting to be written
+	 */
+	public SnapshotWriter(File directory, String prefix, Format format,
+			int interval, int queueSize) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Interval must be positive");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create directory "
+					+ directory);
+		}
+		this.directory = directory;
+		this.prefix = prefix;
+		this.format = format;
+		this.interval = interval;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeSnapshots();
+			}
+		}, "snapshot-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public synchronized void progress(Mat output, int cellsPlaced,
+			int cellCount) {
+		if (closed) {
+			// Nothing would write it
+			return;
+		}
+		if (cellsPlaced < lastCells) {
+			// A new synthesis started
+			lastCells = 0;
+		}
+		if (cellsPlaced - lastCells < interval && cellsPlaced < cellCount) {
+			return;
+		}
+		lastCells = cellsPlaced;
+
+		Mat copy = output.clone();
+		if (!queue.offer(new Snapshot(copy, cellsPlaced))) {
+			copy.release();
+			dropped++;
+		}
+	}
+
+	/**
+	 * @return the number of snapshots dropped because the queue was full
+	 */
+	public synchronized int getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * This method waits for the queued snapshots to be written, at most a
+	 * minute, and stops the background thread. The snapshots not written by
+	 * then are dropped, and so are the ones reported after. If the calling
+	 * thread is interrupted it stops waiting and keeps its interrupt flag.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			if (queue.offer(END, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (writer.isAlive()) {
+			LOGGER.warning("Snapshots still queued are dropped");
+			writer.interrupt();
+			// The writer releases the one it is writing
+			Snapshot snapshot;
+			while ((snapshot = queue.poll()) != null) {
+				if (snapshot != END) {
+					snapshot.image.release();
+				}
+			}
+		}
+	}
+
+	private void writeSnapshots() {
+		while (true) {
+			Snapshot snapshot;
+			try {
+				snapshot = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (snapshot == END) {
+				return;
+			}
+
+			try {
+				write(snapshot);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Cannot write snapshot", e);
+			} finally {
+				snapshot.image.release();
+			}
+		}
+	}
+
+	private void write(Snapshot snapshot) throws IOException {
+		String name = prefix + "-" + snapshot.cellsPlaced;
+		Mat image = snapshot.image;
+		if (format == Format.PNG) {
+			// Fast compression, the snapshots are temporary
+			File file = new File(directory, name + ".png");
+			MatOfInt params = new MatOfInt(Imgcodecs.CV_IMWRITE_PNG_COMPRESSION,
+					1);
+			boolean written = Imgcodecs.imwrite(file.getPath(), image, params);
+			params.release();
+			if (!written) {
+				throw new IOException("Cannot write " + file);
+			}
+		} else {
+			PpmSink sink = new PpmSink(new FileOutputStream(new File(
+					directory, name + ".ppm")));
+			try {
+				sink.begin(image.cols(), image.rows());
+				sink.writeRows(image, 0);
+			} finally {
+				sink.end();
+			}
+		}
+	}
+
+	private static class Snapshot {
+		private Mat image;
+		private int cellsPlaced;
+
+		Snapshot(Mat image, int cellsPlaced) {
+			this.image = image;
+			this.cellsPlaced = cellsPlaced;
+		}
+	}
+}
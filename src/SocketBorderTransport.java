@@ -0,0 +1,143 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link BorderTransport} to a {@link BorderServer}, possibly on another
+ * host. Every call opens its own connection, so workers can share it between
+ * threads. A call that fails to connect or times out is tried again: the
+ * server keeps a strip until its receiver acknowledges it, and a strip sent
+ * twice replaces itself.
+ */
+public class SocketBorderTransport implements BorderTransport {
+	/**
+	 * Time (milliseconds) to connect to the server
+	 */
+	static final int CONNECT_TIMEOUT_MILLIS = 10000;
+	/**
+	 * Time (milliseconds) to wait for an answer. A strip to receive may wait
+	 * for a whole tile to be synthesized.
+	 */
+	static final int READ_TIMEOUT_MILLIS = 600000;
+	/**
+	 * Number of times a call is tried
+	 */
+	static final int ATTEMPTS = 3;
+	/**
+	 * Time (milliseconds) waited before the first retry, doubled before
+	 * every other one
+	 */
+	static final long RETRY_DELAY_MILLIS = 500;
+
+	private static final Logger LOGGER = Logger
+			.getLogger(SocketBorderTransport.class.getName());
+
+	private String host;
+	private int port;
+
+	/**
+	 * @param host
+	 *            The host of the {@link BorderServer}
+	 * @param port
+	 *            The port of the {@link BorderServer}
+	 */
+	public SocketBorderTransport(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	@Override
+	public void send(BorderStrip strip) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try (Socket socket = connect()) {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				out.writeByte(BorderServer.SEND);
+				strip.write(out);
+				out.flush();
+				DataInputStream in = new DataInputStream(
+						socket.getInputStream());
+				if (in.readByte() != BorderServer.OK) {
+					throw new IOException("Strip not acknowledged");
+				}
+				return;
+			} catch (IOException e) {
+				try {
+					retry(attempt, e);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(
+							"Interrupted while sending a strip");
+				}
+			}
+		}
+	}
+
+	@Override
+	public BorderStrip receive(int tileCol, int tileRow, BorderStrip.Edge edge)
+			throws IOException, InterruptedException {
+		for (int attempt = 1;; attempt++) {
+			try (Socket socket = connect()) {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				out.writeByte(BorderServer.RECEIVE);
+				out.writeInt(tileCol);
+				out.writeInt(tileRow);
+				out.writeByte(edge.ordinal());
+				out.flush();
+				BorderStrip strip = BorderStrip.read(new DataInputStream(
+						new BufferedInputStream(socket.getInputStream())));
+
+				// The server keeps the strip until it is acknowledged
+				out.writeByte(BorderServer.OK);
+				out.flush();
+				return strip;
+			} catch (IOException e) {
+				retry(attempt, e);
+			}
+		}
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port),
+					CONNECT_TIMEOUT_MILLIS);
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * This method waits before a call is tried again, or throws the failure
+	 * of its last attempt.
+	 *
+	 * @param attempt
+	 *            The attempt that failed, from 1
+	 * @param failure
+	 * @throws IOException
+	 *             The failure, after the last attempt
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	private void retry(int attempt, IOException failure) throws IOException,
+			InterruptedException {
+		if (attempt >= ATTEMPTS || failure instanceof InterruptedIOException
+				&& Thread.currentThread().isInterrupted()) {
+			throw failure;
+		}
+		LOGGER.log(Level.FINE, "Border strip call failed, trying again",
+				failure);
+		Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+	}
+}
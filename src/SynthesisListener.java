@@ -0,0 +1,15 @@
+/**
+ * Receives the metrics of every output cell placed by an {@link ImageQuilter}.
+ * Cells placed at the same time report from different threads, so
+ * implementations must be thread safe.
+ */
+public interface SynthesisListener {
+
+	/**
+	 * This method is called after an output cell is filled.
+	 * 
+	 * @param metrics
+	 *            Timings and counters of the cell
+	 */
+	void cellPlaced(CellMetrics metrics);
+}
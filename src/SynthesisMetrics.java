@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A listener that adds up the metrics of every placed cell, and optionally
+ * keeps them, so they can be exported as JSON after a synthesis.
+ */
+public class SynthesisMetrics implements SynthesisListener {
+	private static final String[] PHASES = { "scoring", "filtering", "seam",
+			"copy" };
+
+	private boolean keepCells;
+	private List<CellMetrics> cells = new ArrayList<>();
+	private long cellCount;
+	private long[] totalNanos = new long[PHASES.length];
+	private long[] maxNanos = new long[PHASES.length];
+	private long candidatesScanned;
+	private long candidatesWithinTolerance;
+	private long bytesAllocated;
+
+	public SynthesisMetrics() {
+		this(false);
+	}
+
+	/**
+	 * @param keepCells
+	 *            Whether the metrics of every cell are kept besides the
+	 *            totals
+	 */
+	public SynthesisMetrics(boolean keepCells) {
+		this.keepCells = keepCells;
+	}
+
+	@Override
+	public synchronized void cellPlaced(CellMetrics metrics) {
+		long[] nanos = { metrics.getScoringNanos(),
+				metrics.getFilteringNanos(), metrics.getSeamNanos(),
+				metrics.getCopyNanos() };
+		for (int i = 0; i < PHASES.length; i++) {
+			totalNanos[i] += nanos[i];
+			maxNanos[i] = Math.max(maxNanos[i], nanos[i]);
+		}
+		cellCount++;
+		candidatesScanned += metrics.getCandidatesScanned();
+		candidatesWithinTolerance += metrics.getCandidatesWithinTolerance();
+		if (metrics.getBytesAllocated() > 0) {
+			bytesAllocated += metrics.getBytesAllocated();
+		}
+		if (keepCells) {
+			cells.add(metrics);
+		}
+	}
+
+	public synchronized long getCellCount() {
+		return cellCount;
+	}
+
+	public synchronized long getScoringNanos() {
+		return totalNanos[0];
+	}
+
+	public synchronized long getFilteringNanos() {
+		return totalNanos[1];
+	}
+
+	public synchronized long getSeamNanos() {
+		return totalNanos[2];
+	}
+
+	public synchronized long getCopyNanos() {
+		return totalNanos[3];
+	}
+
+	public synchronized long getCandidatesScanned() {
+		return candidatesScanned;
+	}
+
+	public synchronized long getCandidatesWithinTolerance() {
+		return candidatesWithinTolerance;
+	}
+
+	public synchronized long getBytesAllocated() {
+		return bytesAllocated;
+	}
+
+	/**
+	 * This method forgets every recorded cell.
+	 */
+	public synchronized void reset() {
+		cells.clear();
+		cellCount = 0;
+		totalNanos = new long[PHASES.length];
+		maxNanos = new long[PHASES.length];
+		candidatesScanned = 0;
+		candidatesWithinTolerance = 0;
+		bytesAllocated = 0;
+	}
+
+	/**
+	 * @return the totals, the per phase mean and max times and, if they are
+	 *         kept, the metrics of every cell as a JSON object
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"cells\":").append(cellCount);
+		json.append(",\"phases\":{");
+		for (int i = 0; i < PHASES.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append('"').append(PHASES[i]).append("\":{\"totalNanos\":")
+					.append(totalNanos[i]).append(",\"meanNanos\":")
+					.append(cellCount > 0 ? totalNanos[i] / cellCount : 0)
+					.append(",\"maxNanos\":").append(maxNanos[i]).append('}');
+		}
+		json.append("},\"candidatesScanned\":").append(candidatesScanned);
+		json.append(",\"candidatesWithinTolerance\":").append(
+				candidatesWithinTolerance);
+		json.append(",\"bytesAllocated\":").append(bytesAllocated);
+		if (keepCells) {
+			json.append(",\"perCell\":[");
+			for (int i = 0; i < cells.size(); i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append(cells.get(i).toJson());
+			}
+			json.append(']');
+		}
+		return json.append('}').toString();
+	}
+}
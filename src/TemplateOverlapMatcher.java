@@ -0,0 +1,358 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This matcher computes the whole overlap SSD map of an output cell in one
+ * pass per overlap strip, using the expansion
+ *
+ * <pre>
+ * SSD(x, y) = sum(a^2) - 2 * sum(a * b) + sum(b^2)
+ * </pre>
+ *
+ * where a is the output overlap strip and b the candidate strip at (x,y). The
+ * cross correlation term is computed for every candidate at once with
+ * {@link Imgproc#matchTemplate} (which switches to a DFT for big inputs) and
+ * the sum(b^2) term is read from the squared integral image of the texture,
+ * computed once in the constructor or read from a {@link CompiledTexture}.
+ * Every channel is correlated on its own plane and its SSD rounded on its
+ * own, so the float error of the correlation does not add up between
+ * channels.
+ *
+ * The distances are the SSD of every channel of the left and top strips, with
+ * the corner counted in both of them, as in {@link DirectOverlapMatcher}, up
+ * to the float error of the correlation bounded by
+ * {@link #maxDistanceError(int)}. {@link ImageQuilter} widens its tolerance
+ * filter by that bound and scores the candidates it keeps again in integers,
+ * so it chooses among exactly the candidates the exact matchers give.
+ */
+public class TemplateOverlapMatcher implements OverlapMatcher {
+	private static final double CENTER = 128;
+	/**
+	 * Bound of the error of the float correlation relative to the largest
+	 * sum it can have. A float keeps 24 bits, this leaves 8 of them to the
+	 * rounding of the DFT.
+	 */
+	private static final double CORRELATION_ERROR = 1.0 / (1 << 16);
+
+	/**
+	 * One centered float plane per channel
+	 */
+	private Mat[] planes;
+	/**
+	 * Squared integral image of every channel, interleaved
+	 */
+	private double[] sqIntegral;
+	private int integralCols;
+	private int channels;
+	private int patchSize;
+	private int overlapSize;
+	private ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of candidate rows and columns, the same size as dists.
+	 */
+	private int rows;
+	private int cols;
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public TemplateOverlapMatcher(Mat textureImage, int patchSize,
+			int overlapSize) {
+		this(textureImage, null, patchSize, overlapSize);
+	}
+
+	/**
+	 * @param textureImage
+	 *            This is the texture to sample from.
+	 * @param sqIntegral
+	 *            The squared integral image of textureImage given by
+	 *            {@link #squaredIntegral(Mat)}, or null to compute it
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 */
+	public TemplateOverlapMatcher(Mat textureImage, DoubleBuffer sqIntegral,
+			int patchSize, int overlapSize) {
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.rows = textureImage.rows() - patchSize;
+		this.cols = textureImage.cols() - patchSize;
+		this.integralCols = textureImage.cols() + 1;
+		this.channels = textureImage.channels();
+
+		Mat texture = centered(textureImage);
+		planes = new Mat[channels];
+		for (int ch = 0; ch < channels; ch++) {
+			planes[ch] = new Mat();
+			Core.extractChannel(texture, planes[ch], ch);
+		}
+		if (sqIntegral == null) {
+			this.sqIntegral = integral(texture);
+			texture.release();
+		} else if (sqIntegral.remaining() != (textureImage.rows() + 1)
+				* integralCols * channels) {
+			texture.release();
+			release();
+			throw new IllegalArgumentException(
+					"Squared integral does not match the texture size");
+		} else {
+			// A bulk copy out of the page cache, the hot loop is faster on an
+			// array than on a mapped buffer. The planes above are still
+			// derived from the pixels.
+			texture.release();
+			this.sqIntegral = new double[sqIntegral.remaining()];
+			sqIntegral.duplicate().get(this.sqIntegral);
+		}
+	}
+
+	/**
+	 * This method computes the squared integral image the matcher reads the
+	 * candidate terms from, so it can be stored with the texture.
+	 *
+	 * @param textureImage
+	 * @return (rows+1) x (cols+1) sums of every channel, row by row
+	 */
+	public static double[] squaredIntegral(Mat textureImage) {
+		Mat texture = centered(textureImage);
+		double[] sqIntegral = integral(texture);
+		texture.release();
+		return sqIntegral;
+	}
+
+	/**
+	 * The SSD does not change when both sides are shifted, so the pixels are
+	 * centered on zero to keep the float correlation small
+	 */
+	private static Mat centered(Mat textureImage) {
+		Mat texture = new Mat();
+		textureImage.convertTo(texture, CvType.CV_32F, 1.0, -CENTER);
+		return texture;
+	}
+
+	/**
+	 * Keep the squared integral image on the java side, it is read once per
+	 * candidate
+	 */
+	private static double[] integral(Mat texture) {
+		Mat sum = new Mat();
+		Mat sqsum = new Mat();
+		Imgproc.integral2(texture, sum, sqsum, CvType.CV_64F, CvType.CV_64F);
+		double[] sqIntegral = new double[(int) sqsum.total()
+				* sqsum.channels()];
+		sqsum.get(0, 0, sqIntegral);
+		sum.release();
+		sqsum.release();
+		return sqIntegral;
+	}
+
+	@Override
+	public Point calcDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow) {
+		return calcBandDists(dists, outputCell, cellCol, cellRow, 0, rows);
+	}
+
+	@Override
+	public Point calcBandDists(double[][] dists, Mat outputCell, int cellCol,
+			int cellRow, int rowStart, int rowEnd) {
+		for (int y = rowStart; y < rowEnd; y++) {
+			Arrays.fill(dists[y], 0, cols, 0.0);
+		}
+
+		Workspace workspace = workspaces.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+
+		// Calculate ssd of left overlap, the cell may be cropped by the edge
+		// of the output
+		if (cellCol != 0) {
+			addStripDists(dists, outputCell, overlapSize, outputCell.rows(),
+					rowStart, rowEnd, workspace);
+		}
+
+		// Calculate ssd of top overlap
+		if (cellRow != 0) {
+			addStripDists(dists, outputCell, outputCell.cols(), overlapSize,
+					rowStart, rowEnd, workspace);
+		}
+		workspaces.add(workspace);
+
+		// Look for the best one in the same order as the direct matcher
+		double best = Double.MAX_VALUE;
+		Point bestloc = null;
+		for (int y = rowStart; y < rowEnd; y++) {
+			for (int x = 0; x < cols; x++) {
+				if (dists[y][x] < best) {
+					best = dists[y][x];
+					bestloc = new Point(x, y);
+				}
+			}
+		}
+		return bestloc;
+	}
+
+	@Override
+	public int candidateRows() {
+		return rows;
+	}
+
+	/**
+	 * Every value of a strip adds at most CENTER^2 to the correlation, which
+	 * counts twice in the SSD, and the SSD of every channel of both strips
+	 * is rounded once. Without overlap every distance is exactly 0.
+	 */
+	@Override
+	public double maxDistanceError(int overlapValues) {
+		if (overlapValues == 0) {
+			return 0;
+		}
+		return 2 * CENTER * CENTER * CORRELATION_ERROR * overlapValues + 2
+				* channels;
+	}
+
+	/**
+	 * @return an estimate of the memory (bytes) held by the matcher
+	 */
+	public long byteSize() {
+		return planes[0].total() * 4 * channels + sqIntegral.length * 8L;
+	}
+
+	@Override
+	public void release() {
+		Workspace workspace;
+		while ((workspace = workspaces.poll()) != null) {
+			workspace.release();
+		}
+		for (Mat plane : planes) {
+			plane.release();
+		}
+	}
+
+	/**
+	 * This method adds to dists the SSD between the top left strip of the
+	 * output cell with the given size and the same strip of every candidate.
+	 *
+	 * @param dists
+	 * @param outputCell
+	 * @param width
+	 *            Width of the strip
+	 * @param height
+	 *            Height of the strip
+	 * @param rowStart
+	 *            First candidate row to score
+	 * @param rowEnd
+	 *            Row after the last candidate row to score
+	 * @param workspace
+	 *            Buffers of the calling thread
+	 */
+	private void addStripDists(double[][] dists, Mat outputCell, int width,
+			int height, int rowStart, int rowEnd, Workspace workspace) {
+		Mat outputStrip = outputCell.submat(new Rect(0, 0, width, height));
+		int bandRows = rowEnd - rowStart;
+		double[] sumA2 = workspace.sumA2(channels);
+		float[][] sumAB = workspace.correlations(channels, bandRows * cols);
+		for (int ch = 0; ch < channels; ch++) {
+			// Get the output strip as a float template
+			Core.extractChannel(outputStrip, workspace.strip, ch);
+			Mat templ = workspace.templ;
+			workspace.strip.convertTo(templ, CvType.CV_32F, 1.0, -CENTER);
+
+			float[] a = workspace.template(width * height);
+			templ.get(0, 0, a);
+			sumA2[ch] = 0;
+			for (int i = 0; i < a.length; i++) {
+				sumA2[ch] += a[i] * a[i];
+			}
+
+			// Cross correlation of the strip with every candidate position.
+			// The searched region is cropped so the result has the size of
+			// the band.
+			Mat region = planes[ch].submat(new Rect(0, rowStart, cols - 1
+					+ width, bandRows - 1 + height));
+			Mat corr = workspace.corr;
+			Imgproc.matchTemplate(region, templ, corr, Imgproc.TM_CCORR);
+			region.release();
+			corr.get(0, 0, sumAB[ch]);
+		}
+		outputStrip.release();
+
+		for (int y = rowStart; y < rowEnd; y++) {
+			int top = y * integralCols;
+			int bottom = (y + height) * integralCols;
+			for (int x = 0; x < cols; x++) {
+				int i = (y - rowStart) * cols + x;
+				double ssd = 0;
+				for (int ch = 0; ch < channels; ch++) {
+					double sumB2 = sqIntegral[(bottom + x + width) * channels
+							+ ch]
+							- sqIntegral[(top + x + width) * channels + ch]
+							- sqIntegral[(bottom + x) * channels + ch]
+							+ sqIntegral[(top + x) * channels + ch];
+
+					// The exact SSD is an integer, round away most of the
+					// float error
+					ssd += Math.max(Math.rint(sumA2[ch] - 2.0 * sumAB[ch][i]
+							+ sumB2), 0.0);
+				}
+				dists[y][x] += ssd;
+			}
+		}
+	}
+
+	/**
+	 * Buffers reused by every call. The Mats keep their native buffer while
+	 * the strip and band sizes do not change. Calls running at the same time
+	 * take different workspaces.
+	 */
+	private static class Workspace {
+		private Mat strip = new Mat();
+		private Mat templ = new Mat();
+		private Mat corr = new Mat();
+		private float[] template = new float[0];
+		private float[][] correlations = new float[0][];
+		private double[] sumA2 = new double[0];
+
+		float[] template(int size) {
+			if (template.length != size) {
+				template = new float[size];
+			}
+			return template;
+		}
+
+		float[][] correlations(int channels, int size) {
+			if (correlations.length != channels
+					|| correlations[0].length < size) {
+				correlations = new float[channels][size];
+			}
+			return correlations;
+		}
+
+		double[] sumA2(int channels) {
+			if (sumA2.length != channels) {
+				sumA2 = new double[channels];
+			}
+			return sumA2;
+		}
+
+		void release() {
+			strip.release();
+			templ.release();
+			corr.release();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * A least recently used cache of the preprocessing of textures: the decoded
+ * image, the copy of its pixels the seam cuts read, its matcher (float
+ * conversion and squared integral image) and optionally its candidate index.
+ * Entries are evicted, oldest first, when the memory they hold goes over a
+ * budget. An entry in use by a job is released only after the job gives it
+ * back. A texture is prepared once: when it fails, the jobs waiting for it
+ * fail too and a later job tries again.
+ */
+public class TextureCache {
+	private long memoryBudget;
+	private int indexComponents;
+	private long memoryUsed;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16,
+			0.75f, true);
+
+	/**
+	 * @param memoryBudget
+	 *            Memory (bytes) the cached entries may hold
+	 * @param indexComponents
+	 *            PCA components of the candidate indexes, 0 to index the full
+	 *            strips or a negative number to build no index
+	 */
+	public TextureCache(long memoryBudget, int indexComponents) {
+		this.memoryBudget = memoryBudget;
+		this.indexComponents = indexComponents;
+	}
+
+	/**
+	 * This method returns the entry of a texture, preparing it if it is not
+	 * cached. Every call must be followed by a call to
+	 * {@link #release(Entry)} when the entry is no longer used.
+	 * 
+	 * @param texturePath
+	 * @param patchSize
+	 * @param overlapSize
+	 * @return
+	 */
+	public Entry acquire(String texturePath, int patchSize, int overlapSize) {
+		String key = texturePath + "|" + patchSize + "|" + overlapSize;
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(texturePath, patchSize, overlapSize);
+				entries.put(key, entry);
+			}
+			entry.users++;
+		}
+
+		// Only the first job of a texture prepares it, the others wait and
+		// share its result, even a failure
+		try {
+			entry.prepare();
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				// A later job may have put a new entry already
+				if (entries.get(key) == entry) {
+					entries.remove(key);
+				}
+				entry.users--;
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (!entry.accounted && !entry.evicted) {
+				entry.accounted = true;
+				memoryUsed += entry.byteSize;
+				evict();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * This method gives back an entry returned by
+	 * {@link #acquire(String, int, int)}.
+	 * 
+	 * @param entry
+	 */
+	public synchronized void release(Entry entry) {
+		entry.users--;
+		if (entry.evicted && entry.users == 0) {
+			entry.free();
+		}
+	}
+
+	/**
+	 * @return memory (bytes) held by the cached entries
+	 */
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * This method evicts every entry.
+	 */
+	public synchronized void clear() {
+		long budget = memoryBudget;
+		memoryBudget = -1;
+		evict();
+		memoryBudget = budget;
+	}
+
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (memoryUsed > memoryBudget && it.hasNext()) {
+			Entry entry = it.next();
+			if (!entry.accounted) {
+				// Still being prepared by another job
+				continue;
+			}
+			it.remove();
+			entry.evicted = true;
+			memoryUsed -= entry.byteSize;
+			if (entry.users == 0) {
+				entry.free();
+			}
+		}
+	}
+
+	/**
+	 * The preprocessing of one texture for one patch and overlap size.
+	 */
+	public class Entry {
+		private String texturePath;
+		private int patchSize;
+		private int overlapSize;
+
+		private Mat texture;
+		private byte[] pixels;
+		private TemplateOverlapMatcher matcher;
+		private PatchIndex index;
+		private long byteSize;
+
+		private RuntimeException failure;
+
+		private int users;
+		private boolean accounted;
+		private boolean evicted;
+
+		Entry(String texturePath, int patchSize, int overlapSize) {
+			this.texturePath = texturePath;
+			this.patchSize = patchSize;
+			this.overlapSize = overlapSize;
+		}
+
+		private synchronized void prepare() {
+			if (failure != null) {
+				throw new IllegalStateException("Failed to prepare texture "
+						+ texturePath, failure);
+			}
+			if (texture != null) {
+				return;
+			}
+			try {
+				load();
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		private void load() {
+			Mat image = Imgcodecs.imread(
+					new File(texturePath).getAbsolutePath(),
+					Imgcodecs.CV_LOAD_IMAGE_COLOR);
+			if (image.empty()) {
+				throw new IllegalArgumentException("Cannot read texture "
+						+ texturePath);
+			}
+			try {
+				matcher = new TemplateOverlapMatcher(image, patchSize,
+						overlapSize);
+				if (indexComponents >= 0) {
+					index = new PatchIndex(image, patchSize, overlapSize,
+							indexComponents);
+				}
+			} catch (RuntimeException e) {
+				if (matcher != null) {
+					matcher.release();
+				}
+				image.release();
+				throw e;
+			}
+			pixels = ImageQuilter.texturePixels(image);
+			byteSize = image.total() * image.elemSize() + pixels.length
+					+ matcher.byteSize()
+					+ (index != null ? index.byteSize() : 0);
+			texture = image;
+		}
+
+		private void free() {
+			matcher.release();
+			texture.release();
+		}
+
+		public Mat getTexture() {
+			return texture;
+		}
+
+		/**
+		 * @return the pixels of the texture given by
+		 *         {@link ImageQuilter#texturePixels(Mat)}, shared by the jobs
+		 */
+		public byte[] getPixels() {
+			return pixels;
+		}
+
+		public OverlapMatcher getMatcher() {
+			return matcher;
+		}
+
+		public PatchIndex getIndex() {
+			return index;
+		}
+
+		public int getPatchSize() {
+			return patchSize;
+		}
+
+		public int getOverlapSize() {
+			return overlapSize;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+import org.opencv.core.Rect;
+
+/**
+ * A region of the output synthesized on its own by a {@link TileWorker}. A
+ * tile shares overlapSize columns with the tiles on its left and right, and
+ * overlapSize rows with the tiles above and below, where the seams between
+ * them are cut.
+ */
+public class Tile {
+	private int col;
+	private int row;
+	private Rect region;
+	private boolean right;
+	private boolean bottom;
+
+	/**
+	 * @param col
+	 *            Column of the tile in the grid of tiles
+	 * @param row
+	 *            Row of the tile in the grid of tiles
+	 * @param region
+	 *            The pixels of the whole output covered by the tile
+	 * @param right
+	 *            Whether there is a tile on the right
+	 * @param bottom
+	 *            Whether there is a tile below
+	 */
+	public Tile(int col, int row, Rect region, boolean right, boolean bottom) {
+		this.col = col;
+		this.row = row;
+		this.region = region;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+	public int getCol() {
+		return col;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * @return a copy of the pixels of the whole output covered by the tile
+	 */
+	public Rect getRegion() {
+		return region.clone();
+	}
+
+	public boolean hasLeft() {
+		return col > 0;
+	}
+
+	public boolean hasTop() {
+		return row > 0;
+	}
+
+	public boolean hasRight() {
+		return right;
+	}
+
+	public boolean hasBottom() {
+		return bottom;
+	}
+
+	@Override
+	public String toString() {
+		return "Tile " + col + "," + row + " " + region;
+	}
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+/**
+ * Splits an output in tiles that independent workers synthesize. A tile is
+ * made of whole cells of the output grid, so its cells are the ones a single
+ * synthesis would place there, and it overlaps its neighbours by the overlap
+ * of the cells.
+ *
+ * A tile needs the border strips of the tiles on its left and above, so the
+ * tiles are listed in waves: the tile at row i and column j goes in wave
+ * i + j. A worker that takes its tiles in this order only waits for tiles of
+ * previous waves, which never wait for it, so the workers cannot deadlock
+ * however the tiles are shared between them.
+ */
+public class TilePartitioner {
+	public static int DEFAULT_TILE_CELLS = 16;
+
+	private int patchSize;
+	private int overlapSize;
+	private int tileCells;
+
+	/**
+	 * @param patchSize
+	 *            This is the width (pixels) of the square patches used.
+	 * @param overlapSize
+	 *            This is the width (pixels) of the overlap region.
+	 * @param tileCells
+	 *            Number of cells along each side of a tile, the tiles on the
+	 *            right and bottom edges may have fewer
+	 */
+	public TilePartitioner(int patchSize, int overlapSize, int tileCells) {
+		if (overlapSize < 1 || patchSize <= overlapSize) {
+			throw new IllegalArgumentException(
+					"Overlap must be positive and smaller than the patch");
+		}
+		if (tileCells < 1) {
+			throw new IllegalArgumentException("Tile cells must be positive");
+		}
+		this.patchSize = patchSize;
+		this.overlapSize = overlapSize;
+		this.tileCells = tileCells;
+	}
+
+	/**
+	 * This method splits an output in tiles.
+	 *
+	 * @param outWidth
+	 * @param outHeight
+	 * @return the tiles, in waves
+	 */
+	public List<Tile> partition(int outWidth, int outHeight) {
+		if (outWidth < 1 || outHeight < 1) {
+			throw new IllegalArgumentException("Output size is too small");
+		}
+		int cols = tilesAlong(outWidth);
+		int rows = tilesAlong(outHeight);
+		int span = tileCells * (patchSize - overlapSize);
+
+		List<Tile> tiles = new ArrayList<>();
+		for (int wave = 0; wave < rows + cols - 1; wave++) {
+			for (int i = Math.min(wave, rows - 1); i >= 0 && wave - i < cols; i--) {
+				int j = wave - i;
+				int x = j * span;
+				int y = i * span;
+				Rect region = new Rect(x, y, Math.min(outWidth - x, span
+						+ overlapSize), Math.min(outHeight - y, span
+						+ overlapSize));
+				tiles.add(new Tile(j, i, region, j < cols - 1, i < rows - 1));
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * This method gives the tiles of one of several workers, sharing the
+	 * tiles of every wave between them.
+	 *
+	 * @param tiles
+	 *            The tiles of the output, in waves
+	 * @param worker
+	 *            From 0 to workers - 1
+	 * @param workers
+	 * @return the tiles of the worker, in waves
+	 */
+	public static List<Tile> tilesOf(List<Tile> tiles, int worker, int workers) {
+		if (worker < 0 || worker >= workers) {
+			throw new IllegalArgumentException("No such worker " + worker);
+		}
+		List<Tile> own = new ArrayList<>();
+		for (int i = worker; i < tiles.size(); i += workers) {
+			own.add(tiles.get(i));
+		}
+		return own;
+	}
+
+	/**
+	 * This method counts the tiles along a side of the output. A tile starts
+	 * every tileCells cells while it has pixels beyond the overlap with the
+	 * previous one.
+	 *
+	 * @param length
+	 *            Width or height (pixels) of the output
+	 * @return
+	 */
+	public int tilesAlong(int length) {
+		int span = tileCells * (patchSize - overlapSize);
+		return Math.max(1, (length - overlapSize + span - 1) / span);
+	}
+
+	/**
+	 * This method counts the cells of a tile, the ones cropped by the edges
+	 * of the output included.
+	 *
+	 * @param tile
+	 * @return
+	 */
+	public int cellsOf(Tile tile) {
+		Rect region = tile.getRegion();
+		return cellsAlong(region.width) * cellsAlong(region.height);
+	}
+
+	private int cellsAlong(int length) {
+		int step = patchSize - overlapSize;
+		return Math.max(1, (length - overlapSize + step - 1) / step);
+	}
+
+	public int getPatchSize() {
+		return patchSize;
+	}
+
+	public int getOverlapSize() {
+		return overlapSize;
+	}
+}
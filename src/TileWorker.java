@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Synthesizes tiles of an output on its own. A tile waits for the border
+ * strips of the tiles on its left and above, is synthesized against them and
+ * sends its own right and bottom strips to its neighbours, and the whole
+ * tile to the coordinator. Nothing else goes between the workers, so they
+ * can run in other processes or hosts, see {@link SocketBorderTransport}.
+ */
+public class TileWorker {
+	private ImageQuilter quilter;
+	private BorderTransport transport;
+
+	/**
+	 * Load the OpenCV system library
+	 */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/**
+	 * @param quilter
+	 *            Synthesizes the tiles. The workers of an output use the
+	 *            same texture, sizes and seed.
+	 * @param transport
+	 *            Carries the strips
+	 */
+	public TileWorker(ImageQuilter quilter, BorderTransport transport) {
+		this.quilter = quilter;
+		this.transport = transport;
+	}
+
+	/**
+	 * This method synthesizes tiles, in the given order.
+	 *
+	 * @param tiles
+	 *            The tiles, in the waves of {@link TilePartitioner}
+	 * @throws IOException
+	 *             If a strip cannot be sent or received
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a strip
+	 */
+	public void synthesize(List<Tile> tiles) throws IOException,
+			InterruptedException {
+		for (Tile tile : tiles) {
+			synthesize(tile);
+		}
+	}
+
+	/**
+	 * This method synthesizes a tile.
+	 *
+	 * @param tile
+	 * @throws IOException
+	 *             If a strip cannot be sent or received
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a strip
+	 */
+	public void synthesize(Tile tile) throws IOException, InterruptedException {
+		int overlapSize = quilter.getOverlapSize();
+		Mat leftStrip = null;
+		Mat topStrip = null;
+		if (tile.hasLeft()) {
+			leftStrip = transport.receive(tile.getCol() - 1, tile.getRow(),
+					BorderStrip.Edge.RIGHT).toMat();
+		}
+		if (tile.hasTop()) {
+			topStrip = transport.receive(tile.getCol(), tile.getRow() - 1,
+					BorderStrip.Edge.BOTTOM).toMat();
+		}
+
+		Mat pixels = quilter.synthesizeTile(tile.getRegion(), leftStrip,
+				topStrip);
+		if (leftStrip != null) {
+			leftStrip.release();
+		}
+		if (topStrip != null) {
+			topStrip.release();
+		}
+
+		int width = pixels.cols();
+		int height = pixels.rows();
+		if (tile.hasRight()) {
+			Mat right = pixels.submat(new Rect(width - overlapSize, 0,
+					overlapSize, height));
+			transport.send(new BorderStrip(tile.getCol(), tile.getRow(),
+					BorderStrip.Edge.RIGHT, right));
+			right.release();
+		}
+		if (tile.hasBottom()) {
+			Mat bottom = pixels.submat(new Rect(0, height - overlapSize,
+					width, overlapSize));
+			transport.send(new BorderStrip(tile.getCol(), tile.getRow(),
+					BorderStrip.Edge.BOTTOM, bottom));
+			bottom.release();
+		}
+		transport.send(new BorderStrip(tile.getCol(), tile.getRow(),
+				BorderStrip.Edge.TILE, pixels));
+		pixels.release();
+	}
+
+	/**
+	 * Runs a worker of a tiled synthesis served by {@link TiledQuilter}:
+	 * TileWorker texture.jpg width height seed host port worker workers
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length != 8) {
+			System.err.println("Usage: TileWorker <texture> <width> <height> "
+					+ "<seed> <host> <port> <worker> <workers>");
+			System.exit(1);
+		}
+		File textureFile = new File(args[0]);
+		int width = Integer.parseInt(args[1]);
+		int height = Integer.parseInt(args[2]);
+		Mat textureImage = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		if (textureImage.empty()) {
+			throw new IOException("Cannot read texture " + textureFile);
+		}
+
+		TilePartitioner partitioner = new TilePartitioner(
+				ImageQuilter.DEFAULT_PATCH_SIZE,
+				ImageQuilter.DEFAULT_OVERLAP_SIZE,
+				TilePartitioner.DEFAULT_TILE_CELLS);
+		List<Tile> tiles = TilePartitioner.tilesOf(
+				partitioner.partition(width, height),
+				Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+		try (ImageQuilter quilter = new ImageQuilter(textureImage,
+				ImageQuilter.DEFAULT_PATCH_SIZE,
+				ImageQuilter.DEFAULT_OVERLAP_SIZE, false, 0)) {
+			quilter.setSeed(Long.parseLong(args[3]));
+			new TileWorker(quilter, new SocketBorderTransport(args[4],
+					Integer.parseInt(args[5]))).synthesize(tiles);
+		}
+		textureImage.release();
+	}
+}
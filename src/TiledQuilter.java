@@ -0,0 +1,356 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Coordinates a synthesis split in tiles between {@link TileWorker}s, which
+ * may run in other processes. The workers only exchange the border strips
+ * of their tiles. The coordinator receives the finished tiles and pastes them
+ * in raster order, cutting a min cost seam through every band a tile shares
+ * with the tiles pasted before it on its left and above, as the cells are
+ * cut against each other.
+ */
+public class TiledQuilter {
+	private TilePartitioner partitioner;
+	private ProgressSink progressSink;
+
+	/**
+	 * Load the OpenCV system library
+	 */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/**
+	 * @param partitioner
+	 *            Splits the output, with the patch and overlap sizes of the
+	 *            workers
+	 */
+	public TiledQuilter(TilePartitioner partitioner) {
+		this.partitioner = partitioner;
+	}
+
+	/**
+	 * Sets a sink that receives the output while the tiles are pasted, or
+	 * null (the default) to not report the progress. It is called on the
+	 * thread that assembles the output, once per pasted tile: the cell is
+	 * the region of the tile on the output and the cells placed count the
+	 * cells of the pasted tiles. The workers do not report to the progress
+	 * sink of their quilter.
+	 *
+	 * @param progressSink
+	 */
+	public void setProgressSink(ProgressSink progressSink) {
+		this.progressSink = progressSink;
+	}
+
+	/**
+	 * This method synthesizes an output with workers running in this
+	 * process, which exchange the strips in memory.
+	 *
+	 * @param quilter
+	 *            Synthesizes the tiles of every worker
+	 * @param outWidth
+	 * @param outHeight
+	 * @param workers
+	 *            Number of tiles synthesized at the same time
+	 * @return
+	 */
+	public Mat synthesize(ImageQuilter quilter, int outWidth, int outHeight,
+			int workers) {
+		LocalBorderTransport transport = new LocalBorderTransport();
+		return synthesize(quilter, outWidth, outHeight, workers, transport,
+				transport);
+	}
+
+	/**
+	 * This method synthesizes an output with workers running in this
+	 * process, which exchange the strips through the given transports.
+	 *
+	 * @param quilter
+	 *            Synthesizes the tiles of every worker. Its listener is
+	 *            called from the threads of the workers.
+	 * @param outWidth
+	 * @param outHeight
+	 * @param workers
+	 *            Number of tiles synthesized at the same time
+	 * @param workerTransport
+	 *            The transport of the workers
+	 * @param coordinatorTransport
+	 *            The transport the tiles are received from, which gets the
+	 *            strips sent through workerTransport
+	 * @return
+	 */
+	public Mat synthesize(final ImageQuilter quilter, int outWidth,
+			int outHeight, int workers, final BorderTransport workerTransport,
+			BorderTransport coordinatorTransport) {
+		checkSizes(quilter);
+		List<Tile> tiles = partitioner.partition(outWidth, outHeight);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Callable<Void>> runs = new ArrayList<>();
+			for (int i = 0; i < workers; i++) {
+				final List<Tile> own = TilePartitioner.tilesOf(tiles, i,
+						workers);
+				runs.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						new TileWorker(quilter, workerTransport)
+								.synthesize(own);
+						return null;
+					}
+				});
+			}
+
+			// Every tile is sent before the reconciliation starts, so a
+			// failed worker is not waited for
+			for (Future<Void> run : executor.invokeAll(runs)) {
+				run.get();
+			}
+			return assemble(outWidth, outHeight, coordinatorTransport);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Synthesis interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to synthesize a tile",
+					e.getCause());
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to receive a tile", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void checkSizes(ImageQuilter quilter) {
+		if (quilter.getPatchSize() != partitioner.getPatchSize()
+				|| quilter.getOverlapSize() != partitioner.getOverlapSize()) {
+			throw new IllegalArgumentException(
+					"The tiles are not made of the cells of the quilter");
+		}
+	}
+
+	/**
+	 * This method receives every tile of an output and pastes them. The
+	 * tiles are received in raster order, so a tile finished before the ones
+	 * above it waits in the transport: up to every tile of the output, plus
+	 * the output itself, may be held in memory at the same time.
+	 *
+	 * @param outWidth
+	 * @param outHeight
+	 * @param transport
+	 *            The transport the workers send the tiles to
+	 * @return the output
+	 * @throws IOException
+	 *             If a tile cannot be received
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a tile
+	 */
+	public Mat assemble(int outWidth, int outHeight, BorderTransport transport)
+			throws IOException, InterruptedException {
+		Mat output = Mat.zeros(outHeight, outWidth, CvType.CV_8UC3);
+		MinPathFinder finder = new MinPathFinder(1,
+				partitioner.getOverlapSize());
+		int cols = partitioner.tilesAlong(outWidth);
+		int rows = partitioner.tilesAlong(outHeight);
+		List<Tile> tiles = partitioner.partition(outWidth, outHeight);
+		Tile[] grid = new Tile[rows * cols];
+		int cellCount = 0;
+		for (Tile tile : tiles) {
+			grid[tile.getRow() * cols + tile.getCol()] = tile;
+			cellCount += partitioner.cellsOf(tile);
+		}
+
+		int cellsPlaced = 0;
+		for (Tile tile : grid) {
+			Mat pixels = transport.receive(tile.getCol(), tile.getRow(),
+					BorderStrip.Edge.TILE).toMat();
+			paste(output, tile, pixels, finder);
+			pixels.release();
+			if (progressSink != null) {
+				cellsPlaced += partitioner.cellsOf(tile);
+				progressSink.cellPlaced(output, tile.getRegion());
+				progressSink.progress(output, cellsPlaced, cellCount);
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * This method pastes a tile on the output. On the bands it shares with
+	 * the tiles on its left and above, the pixels beyond the min cost seam
+	 * through the squared differences of every channel are kept.
+	 *
+	 * @param output
+	 * @param tile
+	 * @param pixels
+	 * @param finder
+	 */
+	private void paste(Mat output, Tile tile, Mat pixels, MinPathFinder finder) {
+		Rect region = tile.getRegion();
+		int width = region.width;
+		int height = region.height;
+		int overlapSize = partitioner.getOverlapSize();
+		Mat target = output.submat(region);
+
+		byte[] mask = new byte[width * height];
+		Arrays.fill(mask, (byte) 1);
+		if (tile.hasLeft() || tile.hasTop()) {
+			byte[] oldPixels = read(target);
+			byte[] newPixels = read(pixels);
+			int stride = width * 3;
+			if (tile.hasLeft()) {
+				// Vertical seam through the band on the left
+				double[] differences = new double[height * overlapSize];
+				for (int r = 0; r < height; r++) {
+					for (int k = 0; k < overlapSize; k++) {
+						differences[r * overlapSize + k] = difference(
+								oldPixels, newPixels, r * stride + k * 3);
+					}
+				}
+				int[] seam = seam(finder, differences, height, overlapSize);
+				for (int r = 0; r < height; r++) {
+					for (int k = 0; k < seam[r]; k++) {
+						mask[r * width + k] = 0;
+					}
+				}
+			}
+			if (tile.hasTop()) {
+				// Horizontal seam through the band above, walked as columns
+				double[] differences = new double[width * overlapSize];
+				for (int c = 0; c < width; c++) {
+					for (int k = 0; k < overlapSize; k++) {
+						differences[c * overlapSize + k] = difference(
+								oldPixels, newPixels, k * stride + c * 3);
+					}
+				}
+				int[] seam = seam(finder, differences, width, overlapSize);
+				for (int c = 0; c < width; c++) {
+					for (int k = 0; k < seam[c]; k++) {
+						mask[k * width + c] = 0;
+					}
+				}
+			}
+		}
+
+		Mat maskMat = new Mat(height, width, CvType.CV_8UC1);
+		maskMat.put(0, 0, mask);
+		pixels.copyTo(target, maskMat);
+		maskMat.release();
+		target.release();
+	}
+
+	private static double difference(byte[] a, byte[] b, int offset) {
+		double sum = 0;
+		for (int ch = 0; ch < 3; ch++) {
+			int d = (a[offset + ch] & 0xff) - (b[offset + ch] & 0xff);
+			sum += d * d;
+		}
+		return sum;
+	}
+
+	/**
+	 * This method finds the min cost seam along a band.
+	 *
+	 * @param finder
+	 * @param differences
+	 *            differences[i*overlapSize+k] is the cost of crossing the
+	 *            band at k, at position i along it
+	 * @param length
+	 *            Length (pixels) of the band
+	 * @param overlapSize
+	 * @return seam[i] is where the band is crossed at position i, the pixels
+	 *         before it are kept
+	 */
+	private static int[] seam(MinPathFinder finder, double[] differences,
+			int length, int overlapSize) {
+		finder.find(differences, length, overlapSize, false);
+		int[] seam = new int[length];
+		int k = finder.bestSourceCol();
+		for (int i = length - 1; i >= 0; i--) {
+			seam[i] = k;
+			if (i > 0) {
+				k = finder.next(i, k);
+			}
+		}
+		return seam;
+	}
+
+	private static byte[] read(Mat image) {
+		int stride = image.cols() * image.channels();
+		byte[] pixels = new byte[image.rows() * stride];
+		byte[] row = new byte[stride];
+		for (int r = 0; r < image.rows(); r++) {
+			image.get(r, 0, row);
+			System.arraycopy(row, 0, pixels, r * stride, stride);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Synthesizes a texture in tiles:
+	 * TiledQuilter texture.jpg width height output.png workers [port]
+	 *
+	 * Without a port the workers are threads of this process, talking over a
+	 * loopback socket. With a port, the tiles are received from
+	 * {@link TileWorker} processes started with the same size, the host of
+	 * this process, the port and workers.
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length != 5 && args.length != 6) {
+			System.err.println("Usage: TiledQuilter <texture> <width> "
+					+ "<height> <output> <workers> [port]");
+			System.exit(1);
+		}
+		int width = Integer.parseInt(args[1]);
+		int height = Integer.parseInt(args[2]);
+		int workers = Integer.parseInt(args[4]);
+		TiledQuilter tiled = new TiledQuilter(new TilePartitioner(
+				ImageQuilter.DEFAULT_PATCH_SIZE,
+				ImageQuilter.DEFAULT_OVERLAP_SIZE,
+				TilePartitioner.DEFAULT_TILE_CELLS));
+
+		Mat output;
+		if (args.length == 6) {
+			try (BorderServer server = new BorderServer(
+					Integer.parseInt(args[5]), null)) {
+				output = tiled.assemble(width, height, server.getTransport());
+			}
+		} else {
+			File textureFile = new File(args[0]);
+			Mat textureImage = Imgcodecs.imread(
+					textureFile.getAbsolutePath(),
+					Imgcodecs.CV_LOAD_IMAGE_COLOR);
+			if (textureImage.empty()) {
+				throw new IOException("Cannot read texture " + textureFile);
+			}
+			try (BorderServer server = new BorderServer(0,
+					InetAddress.getLoopbackAddress());
+					ImageQuilter quilter = new ImageQuilter(textureImage,
+							ImageQuilter.DEFAULT_PATCH_SIZE,
+							ImageQuilter.DEFAULT_OVERLAP_SIZE, false, 0)) {
+				output = tiled.synthesize(quilter, width, height, workers,
+						new SocketBorderTransport(InetAddress
+								.getLoopbackAddress().getHostAddress(),
+								server.getPort()), server.getTransport());
+			}
+			textureImage.release();
+		}
+		Imgcodecs.imwrite(args[3], output);
+		output.release();
+	}
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Checks that a strip goes through its serialized form unchanged.
+ */
+public class BorderStripTest {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void writeThenReadGivesTheSameStrip() throws IOException {
+		Mat tile = randomImage(30, 20);
+		// A submat, which is not continuous
+		Mat right = tile.submat(new Rect(26, 0, 4, 20));
+		BorderStrip strip = new BorderStrip(3, 5, BorderStrip.Edge.RIGHT,
+				right);
+
+		BorderStrip read = BorderStrip.read(new DataInputStream(
+				new ByteArrayInputStream(write(strip))));
+		assertEquals(3, read.getTileCol());
+		assertEquals(5, read.getTileRow());
+		assertEquals(BorderStrip.Edge.RIGHT, read.getEdge());
+		assertEquals(20, read.getRows());
+		assertEquals(4, read.getCols());
+		Mat pixels = read.toMat();
+		assertArrayEquals(ImageQuilter.texturePixels(right.clone()),
+				ImageQuilter.texturePixels(pixels));
+		pixels.release();
+		right.release();
+		tile.release();
+	}
+
+	@Test
+	public void everyEdgeGoesThrough() throws IOException {
+		Mat image = randomImage(7, 3);
+		for (BorderStrip.Edge edge : BorderStrip.Edge.values()) {
+			BorderStrip read = BorderStrip.read(new DataInputStream(
+					new ByteArrayInputStream(write(new BorderStrip(0, 1,
+							edge, image)))));
+			assertEquals(edge, read.getEdge());
+		}
+		image.release();
+	}
+
+	@Test(expected = IOException.class)
+	public void badEdgeIsRejected() throws IOException {
+		Mat image = randomImage(2, 2);
+		byte[] bytes = write(new BorderStrip(0, 0, BorderStrip.Edge.TILE,
+				image));
+		image.release();
+		// The edge follows the column and row
+		bytes[8] = 42;
+		BorderStrip.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedStripIsRejected() throws IOException {
+		Mat image = randomImage(5, 5);
+		byte[] bytes = write(new BorderStrip(0, 0, BorderStrip.Edge.TILE,
+				image));
+		image.release();
+		byte[] truncated = new byte[bytes.length - 1];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		BorderStrip.read(new DataInputStream(new ByteArrayInputStream(
+				truncated)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyColorStripsAreAccepted() {
+		Mat gray = new Mat(4, 4, CvType.CV_8UC1);
+		try {
+			new BorderStrip(0, 0, BorderStrip.Edge.TILE, gray);
+		} finally {
+			gray.release();
+		}
+	}
+
+	private static byte[] write(BorderStrip strip) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		strip.write(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Mat randomImage(int width, int height) {
+		byte[] pixels = new byte[width * height * 3];
+		new Random(width * 31 + height).nextBytes(pixels);
+		Mat image = new Mat(height, width, CvType.CV_8UC3);
+		image.put(0, 0, pixels);
+		return image;
+	}
+}
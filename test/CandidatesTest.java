@@ -0,0 +1,92 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the selection of the best candidates against a full sort.
+ */
+public class CandidatesTest {
+
+	@Test
+	public void retainBestKeepsTheLowestScores() {
+		Candidates candidates = new Candidates();
+		candidates.clear(10);
+		candidates.add(0, 0, 5);
+		candidates.add(1, 0, 1);
+		candidates.add(2, 0, 3);
+		candidates.retainBest(2);
+
+		assertEquals(2, candidates.size());
+		assertEquals(1, candidates.x(0));
+		assertEquals(2, candidates.x(1));
+	}
+
+	@Test
+	public void retainBestMatchesAFullSort() {
+		Random random = new Random(1);
+		Candidates candidates = new Candidates();
+		for (int trial = 0; trial < 1000; trial++) {
+			int n = 1 + random.nextInt(60);
+			int k = 1 + random.nextInt(20);
+			int cols = 8;
+			candidates.clear(cols);
+
+			// Few distinct scores so there are ties, added in a random order
+			Integer[] ids = new Integer[n];
+			final double[] scores = new double[n];
+			for (int i = 0; i < n; i++) {
+				ids[i] = i;
+				scores[i] = random.nextInt(10);
+			}
+			Integer[] order = ids.clone();
+			shuffle(order, random);
+			for (int id : order) {
+				candidates.add(id % cols, id / cols, scores[id]);
+			}
+
+			candidates.retainBest(k);
+
+			Arrays.sort(ids, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int byScore = Double.compare(scores[a], scores[b]);
+					return byScore != 0 ? byScore : a.compareTo(b);
+				}
+			});
+			int kept = Math.min(n, k);
+			int[] expected = new int[kept];
+			for (int i = 0; i < kept; i++) {
+				expected[i] = ids[i];
+			}
+			if (n > k) {
+				// Only a trimmed buffer is put in id order
+				Arrays.sort(expected);
+			}
+
+			int[] actual = new int[candidates.size()];
+			for (int i = 0; i < actual.length; i++) {
+				actual[i] = candidates.y(i) * cols + candidates.x(i);
+				assertEquals(scores[actual[i]], candidates.score(i), 0);
+			}
+			if (n <= k) {
+				Arrays.sort(actual);
+				Arrays.sort(expected);
+			}
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	private static void shuffle(Integer[] values, Random random) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Integer value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+}
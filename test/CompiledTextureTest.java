@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Checks that a compiled texture maps back to the texture it was compiled
+ * from.
+ */
+public class CompiledTextureTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void mappedTextureIsTheCompiledOne() throws IOException {
+		// A width whose rows do not end on 8 bytes, so there is padding
+		Mat texture = BorderStripTest.randomImage(37, 29);
+		File file = new File(folder.getRoot(), "texture.iqt");
+		CompiledTexture.compile(texture, file);
+
+		CompiledTexture compiled = CompiledTexture.map(file);
+		assertEquals(29, compiled.getRows());
+		assertEquals(37, compiled.getCols());
+		assertEquals(3, compiled.getChannels());
+		byte[] expected = ImageQuilter.texturePixels(texture);
+		assertArrayEquals(expected, compiled.pixels());
+		Mat mapped = compiled.toMat();
+		assertArrayEquals(expected, ImageQuilter.texturePixels(mapped));
+		mapped.release();
+
+		double[] sqIntegral = TemplateOverlapMatcher.squaredIntegral(texture);
+		DoubleBuffer stored = compiled.squaredIntegral();
+		double[] read = new double[stored.remaining()];
+		stored.get(read);
+		assertArrayEquals(sqIntegral, read, 0);
+		texture.release();
+	}
+
+	@Test
+	public void compilingAgainReplacesTheFile() throws IOException {
+		File file = new File(folder.getRoot(), "texture.iqt");
+		Mat first = BorderStripTest.randomImage(16, 16);
+		CompiledTexture.compile(first, file);
+		Mat second = BorderStripTest.randomImage(20, 12);
+		CompiledTexture.compile(second, file);
+
+		CompiledTexture compiled = CompiledTexture.map(file);
+		assertEquals(12, compiled.getRows());
+		assertEquals(20, compiled.getCols());
+		assertArrayEquals(ImageQuilter.texturePixels(second), compiled
+				.pixels());
+
+		// No temporary file is left behind
+		assertEquals(1, folder.getRoot().list().length);
+		second.release();
+		first.release();
+	}
+
+	@Test
+	public void openedTextureSynthesizesTheSameImage() throws IOException {
+		File textureFile = new File(System.getProperty("textures.dir",
+				"resources/textures"), "0.jpg");
+		File file = new File(folder.getRoot(), "0.iqt");
+		CompiledTexture.compile(textureFile, file);
+
+		byte[] expected;
+		CompiledTexture compiled = CompiledTexture.map(file);
+		Mat texture = compiled.toMat();
+		try (ImageQuilter quilter = new ImageQuilter(texture, 24, 4, false,
+				0)) {
+			quilter.setSeed(3);
+			Mat output = quilter.synthesize(90, 70);
+			expected = ImageQuilter.texturePixels(output);
+			output.release();
+		}
+		texture.release();
+		try (ImageQuilter quilter = ImageQuilter.open(file, 24, 4, false, 0)) {
+			quilter.setSeed(3);
+			Mat output = quilter.synthesize(90, 70);
+			assertArrayEquals(expected, ImageQuilter.texturePixels(output));
+			output.release();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFilesAreRejected() throws IOException {
+		File file = folder.newFile("texture.iqt");
+		Files.write(file.toPath(), new byte[64]);
+		CompiledTexture.map(file);
+	}
+}
@@ -0,0 +1,126 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Checks that the streaming synthesis gives the rows of the whole output
+ * synthesis with the same seed.
+ */
+public class ImageQuilterTest {
+	private static final int PATCH_SIZE = 24;
+	private static final int OVERLAP_SIZE = 4;
+
+	private static Mat texture;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@BeforeClass
+	public static void loadTexture() {
+		File textureFile = new File(System.getProperty("textures.dir",
+				"resources/textures"), "0.jpg");
+		Mat image = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		assertTrue("Cannot read " + textureFile, !image.empty());
+		texture = image.submat(new Rect(0, 0, 96, 96)).clone();
+		image.release();
+	}
+
+	@AfterClass
+	public static void release() {
+		texture.release();
+	}
+
+	@Test
+	public void streamedRowsAreTheSynthesizedOnes() throws IOException {
+		// Whole cell steps
+		checkStreamed(124, 84);
+	}
+
+	@Test
+	public void streamedRowsOfAPartialLastBand() throws IOException {
+		// 110 - 4 is not a whole number of 20 pixel steps
+		checkStreamed(150, 110);
+		checkStreamed(97, 51);
+	}
+
+	@Test
+	public void streamedRowsOfASingleBand() throws IOException {
+		checkStreamed(100, PATCH_SIZE);
+		checkStreamed(100, 10);
+	}
+
+	private static void checkStreamed(int width, int height)
+			throws IOException {
+		byte[] expected;
+		try (ImageQuilter quilter = quilter()) {
+			Mat output = quilter.synthesize(width, height);
+			expected = ImageQuilter.texturePixels(output);
+			output.release();
+		}
+		MemorySink sink = new MemorySink();
+		try (ImageQuilter quilter = quilter()) {
+			quilter.synthesize(width, height, sink);
+		}
+		assertEquals(1, sink.begun);
+		assertEquals(1, sink.ended);
+		assertEquals(height, sink.nextRow);
+		assertArrayEquals(expected, sink.pixels);
+	}
+
+	private static ImageQuilter quilter() {
+		ImageQuilter quilter = new ImageQuilter(texture, PATCH_SIZE,
+				OVERLAP_SIZE, false, 0);
+		quilter.setSeed(5);
+		return quilter;
+	}
+
+	/**
+	 * Keeps the streamed rows in memory, checking that they come in order
+	 * and without gaps.
+	 */
+	private static class MemorySink implements QuiltSink {
+		private byte[] pixels;
+		private int stride;
+		private int nextRow;
+		private int begun;
+		private int ended;
+
+		@Override
+		public void begin(int width, int height) {
+			begun++;
+			stride = width * 3;
+			pixels = new byte[height * stride];
+		}
+
+		@Override
+		public void writeRows(Mat rows, int y) {
+			assertEquals(0, ended);
+			assertEquals(nextRow, y);
+			assertEquals(stride / 3, rows.cols());
+			byte[] row = new byte[stride];
+			for (int r = 0; r < rows.rows(); r++) {
+				rows.get(r, 0, row);
+				System.arraycopy(row, 0, pixels, (y + r) * stride, stride);
+			}
+			nextRow = y + rows.rows();
+		}
+
+		@Override
+		public void end() {
+			ended++;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Checks that a strip is received once, by whoever waits for it.
+ */
+public class LocalBorderTransportTest {
+	private LocalBorderTransport transport;
+	private ExecutorService executor;
+	private BorderStrip strip;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Before
+	public void setUp() {
+		transport = new LocalBorderTransport();
+		executor = Executors.newCachedThreadPool();
+		Mat image = BorderStripTest.randomImage(4, 6);
+		strip = new BorderStrip(1, 2, BorderStrip.Edge.RIGHT, image);
+		image.release();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void sentStripIsReceived() throws Exception {
+		transport.send(strip);
+		assertSame(strip, transport.receive(1, 2, BorderStrip.Edge.RIGHT));
+	}
+
+	@Test
+	public void receiveWaitsForTheStrip() throws Exception {
+		Future<BorderStrip> received = receive(1, 2, BorderStrip.Edge.RIGHT);
+		Thread.sleep(50);
+		assertFalse(received.isDone());
+		transport.send(strip);
+		assertSame(strip, received.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void otherStripsAreNotReceived() throws Exception {
+		transport.send(strip);
+		Future<BorderStrip> bottom = receive(1, 2, BorderStrip.Edge.BOTTOM);
+		Future<BorderStrip> other = receive(2, 1, BorderStrip.Edge.RIGHT);
+		assertTimesOut(bottom);
+		assertTimesOut(other);
+	}
+
+	@Test
+	public void stripIsReceivedOnce() throws Exception {
+		transport.send(strip);
+		transport.receive(1, 2, BorderStrip.Edge.RIGHT);
+		assertTimesOut(receive(1, 2, BorderStrip.Edge.RIGHT));
+	}
+
+	@Test
+	public void peekedStripStaysUntilRemoved() throws Exception {
+		transport.send(strip);
+		assertSame(strip, transport.peek(1, 2, BorderStrip.Edge.RIGHT));
+		assertSame(strip, transport.peek(1, 2, BorderStrip.Edge.RIGHT));
+		transport.remove(strip);
+		assertTimesOut(receive(1, 2, BorderStrip.Edge.RIGHT));
+	}
+
+	private Future<BorderStrip> receive(final int tileCol, final int tileRow,
+			final BorderStrip.Edge edge) {
+		return executor.submit(new Callable<BorderStrip>() {
+			@Override
+			public BorderStrip call() throws Exception {
+				return transport.receive(tileCol, tileRow, edge);
+			}
+		});
+	}
+
+	private static void assertTimesOut(Future<BorderStrip> received)
+			throws Exception {
+		try {
+			received.get(100, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			received.cancel(true);
+			return;
+		}
+		fail("A strip that was not sent was received");
+	}
+}
@@ -0,0 +1,199 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Checks that every matcher gives the distances of
+ * {@link DirectOverlapMatcher}, and that a synthesis with the same seed gives
+ * the same image whatever the matcher.
+ */
+public class MatcherEquivalenceTest {
+	private static final int PATCH_SIZE = 24;
+	private static final int OVERLAP_SIZE = 4;
+	private static final int TEXTURE_SIZE = 96;
+
+	private static Mat texture;
+	private static Mat outputCell;
+	private static DirectOverlapMatcher reference;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@BeforeClass
+	public static void loadTexture() {
+		File textureFile = new File(System.getProperty("textures.dir",
+				"resources/textures"), "0.jpg");
+		Mat image = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		assertTrue("Cannot read " + textureFile, !image.empty());
+		texture = image.submat(new Rect(0, 0, TEXTURE_SIZE, TEXTURE_SIZE))
+				.clone();
+
+		// The overlaps come from another part of the image, like the cells
+		// in the middle of a synthesis
+		outputCell = image.submat(
+				new Rect(image.cols() - PATCH_SIZE, image.rows() - PATCH_SIZE,
+						PATCH_SIZE, PATCH_SIZE)).clone();
+		image.release();
+		reference = new DirectOverlapMatcher(texture, PATCH_SIZE, OVERLAP_SIZE);
+	}
+
+	@AfterClass
+	public static void release() {
+		reference.release();
+		outputCell.release();
+		texture.release();
+	}
+
+	@Test
+	public void planarGivesTheExactDistances() {
+		PlanarOverlapMatcher matcher = new PlanarOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE);
+		for (int[] cell : cells()) {
+			assertSameDists(calcDists(reference, outputCell, cell),
+					calcDists(matcher, outputCell, cell));
+		}
+		matcher.release();
+	}
+
+	@Test
+	public void planarGivesTheExactDistancesOfACroppedCell() {
+		PlanarOverlapMatcher matcher = new PlanarOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE);
+		Mat cropped = outputCell.submat(new Rect(0, 0, PATCH_SIZE - 7,
+				PATCH_SIZE - 3));
+		for (int[] cell : cells()) {
+			assertSameDists(calcDists(reference, cropped, cell),
+					calcDists(matcher, cropped, cell));
+		}
+		cropped.release();
+		matcher.release();
+	}
+
+	@Test
+	public void templateIsWithinItsErrorBound() {
+		TemplateOverlapMatcher matcher = new TemplateOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE);
+		double error = matcher.maxDistanceError(2 * PATCH_SIZE * OVERLAP_SIZE
+				* texture.channels());
+		double[][] exact = calcDists(reference, outputCell, new int[] { 1, 1 });
+		double[][] dists = calcDists(matcher, outputCell, new int[] { 1, 1 });
+		for (int y = 0; y < exact.length; y++) {
+			for (int x = 0; x < exact[y].length; x++) {
+				assertEquals(exact[y][x], dists[y][x], error);
+			}
+		}
+		matcher.release();
+	}
+
+	@Test
+	public void boundedGivesTheExactDistancesWithinTolerance() {
+		double tolerance = ImageQuilter.DEFAULT_TOLERANCE;
+		BoundedOverlapMatcher matcher = new BoundedOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE, tolerance);
+		for (int[] cell : cells()) {
+			double[][] exact = calcDists(reference, outputCell, cell);
+			double[][] dists = calcDists(matcher, outputCell, cell);
+			double threshold = min(exact) * tolerance;
+			for (int y = 0; y < exact.length; y++) {
+				for (int x = 0; x < exact[y].length; x++) {
+					if (exact[y][x] <= threshold) {
+						assertEquals(exact[y][x], dists[y][x], 0);
+					} else {
+						assertTrue(dists[y][x] > threshold);
+					}
+				}
+			}
+		}
+		matcher.release();
+	}
+
+	@Test
+	public void pyramidRefinesWithTheExactDistances() {
+		PyramidOverlapMatcher matcher = new PyramidOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE, 1, 8);
+		double[][] exact = calcDists(reference, outputCell, new int[] { 1, 1 });
+		double[][] dists = new double[exact.length][exact[0].length];
+		assertNotNull(matcher.calcDists(dists, outputCell, 1, 1));
+		for (int y = 0; y < exact.length; y++) {
+			for (int x = 0; x < exact[y].length; x++) {
+				if (dists[y][x] >= 0) {
+					assertEquals(exact[y][x], dists[y][x], 0);
+				}
+			}
+		}
+		matcher.release();
+	}
+
+	@Test
+	public void everyMatcherSynthesizesTheSameImage() {
+		byte[] expected = synthesize(new DirectOverlapMatcher(texture,
+				PATCH_SIZE, OVERLAP_SIZE));
+		assertArrayEquals(expected, synthesize(new TemplateOverlapMatcher(
+				texture, PATCH_SIZE, OVERLAP_SIZE)));
+		assertArrayEquals(expected, synthesize(new PlanarOverlapMatcher(
+				texture, PATCH_SIZE, OVERLAP_SIZE)));
+		assertArrayEquals(expected, synthesize(new BoundedOverlapMatcher(
+				texture, PATCH_SIZE, OVERLAP_SIZE,
+				ImageQuilter.DEFAULT_TOLERANCE)));
+	}
+
+	/**
+	 * @return the left only, top only and both overlaps, as cell column and
+	 *         row
+	 */
+	private static int[][] cells() {
+		return new int[][] { { 1, 0 }, { 0, 1 }, { 1, 1 } };
+	}
+
+	private static double[][] calcDists(OverlapMatcher matcher, Mat cell,
+			int[] position) {
+		double[][] dists = new double[TEXTURE_SIZE - PATCH_SIZE][TEXTURE_SIZE
+				- PATCH_SIZE];
+		Point best = matcher.calcDists(dists, cell, position[0], position[1]);
+		assertNotNull(best);
+		return dists;
+	}
+
+	private static void assertSameDists(double[][] expected, double[][] dists) {
+		for (int y = 0; y < expected.length; y++) {
+			assertArrayEquals(expected[y], dists[y], 0);
+		}
+	}
+
+	private static double min(double[][] dists) {
+		double min = Double.MAX_VALUE;
+		for (double[] row : dists) {
+			for (double value : row) {
+				min = Math.min(min, value);
+			}
+		}
+		return min;
+	}
+
+	private static byte[] synthesize(OverlapMatcher matcher) {
+		try (ImageQuilter quilter = new ImageQuilter(texture, PATCH_SIZE,
+				OVERLAP_SIZE, false, 0, matcher, null)) {
+			quilter.setSeed(42);
+			Mat output = quilter.synthesize(150, 110);
+			byte[] pixels = ImageQuilter.texturePixels(output);
+			output.release();
+			return pixels;
+		} finally {
+			matcher.release();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Point;
+
+/**
+ * Checks the min cost paths against every path of small grids.
+ */
+public class MinPathFinderTest {
+	private static final int TRIALS = 300;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void verticalPathsHaveTheMinimumCost() {
+		checkAgainstBruteForce(false);
+	}
+
+	@Test
+	public void horizontalPathsHaveTheMinimumCost() {
+		checkAgainstBruteForce(true);
+	}
+
+	@Test
+	public void singleColumnIsTheOnlyPath() {
+		MinPathFinder finder = new MinPathFinder(4, 1);
+		finder.find(new double[] { 1, 2, 3, 4 }, 4, 1, true);
+		assertEquals(0, finder.bestSourceCol());
+		assertEquals(10, finder.costOf(3, 0), 0);
+	}
+
+	private static void checkAgainstBruteForce(boolean allowHorizontal) {
+		Random random = new Random(16);
+		MinPathFinder finder = new MinPathFinder(1, 1);
+		for (int trial = 0; trial < TRIALS; trial++) {
+			int rows = 1 + random.nextInt(6);
+			int cols = 1 + random.nextInt(5);
+			double[] differences = new double[rows * cols];
+			for (int i = 0; i < differences.length; i++) {
+				// Mostly free or expensive spots, so that running along a row
+				// pays off and there are ties
+				int level = random.nextInt(3);
+				differences[i] = level == 0 ? 0 : level == 1 ? 1 : 9;
+			}
+			finder.find(differences, rows, cols, allowHorizontal);
+
+			// The path goes from the last row to the first one
+			double[][] grid = new double[rows][cols];
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < cols; c++) {
+					grid[r][c] = differences[(rows - 1 - r) * cols + c];
+				}
+			}
+			double expected = Double.MAX_VALUE;
+			for (int c = 0; c < cols; c++) {
+				expected = Math.min(expected, minCost(grid, 0, c,
+						allowHorizontal));
+			}
+			int best = finder.bestSourceCol();
+			assertEquals(expected, finder.costOf(rows - 1, best), 0);
+			assertEquals(finder.costOf(rows - 1, best), followedCost(finder,
+					differences, rows, cols, best), 0);
+		}
+	}
+
+	/**
+	 * This method sums the differences along the path followed from a
+	 * source column, which must reach the first row.
+	 */
+	private static double followedCost(MinPathFinder finder,
+			double[] differences, int rows, int cols, int sourceCol) {
+		Point loc = new Point(sourceCol, rows - 1);
+		double cost = 0;
+		int steps = 0;
+		while (loc != null) {
+			cost += differences[(int) loc.y * cols + (int) loc.x];
+			Point next = finder.follow(loc);
+			if (next != null) {
+				assertTrue(Math.abs(next.x - loc.x) <= 1);
+			}
+			loc = next;
+			assertTrue("The path loops", ++steps <= rows * cols);
+		}
+		return cost;
+	}
+
+	/**
+	 * This method finds the cost of the best path through a grid by trying
+	 * every path. The path enters each row at a column, may run along it when
+	 * horizontal movement is allowed, except on the last row, and goes on
+	 * to the same or a neighbouring column of the next row.
+	 *
+	 * @param grid
+	 *            The costs, in the order the path goes through the rows
+	 * @param row
+	 * @param entry
+	 *            Column where the path enters the row
+	 * @param allowHorizontal
+	 * @return
+	 */
+	static double minCost(double[][] grid, int row, int entry,
+			boolean allowHorizontal) {
+		int cols = grid[row].length;
+		boolean last = row == grid.length - 1;
+		boolean run = allowHorizontal && !last;
+		double best = Double.MAX_VALUE;
+		for (int exit = run ? 0 : entry; exit <= (run ? cols - 1 : entry); exit++) {
+			double cost = 0;
+			for (int c = Math.min(entry, exit); c <= Math.max(entry, exit); c++) {
+				cost += grid[row][c];
+			}
+			if (last) {
+				best = Math.min(best, cost);
+				continue;
+			}
+			for (int next = Math.max(0, exit - 1); next <= Math.min(
+					cols - 1, exit + 1); next++) {
+				best = Math.min(best, cost
+						+ minCost(grid, row + 1, next, allowHorizontal));
+			}
+		}
+		return best;
+	}
+}
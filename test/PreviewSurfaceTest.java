@@ -0,0 +1,134 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+/**
+ * Checks the pixels of the preview, without a display.
+ */
+public class PreviewSurfaceTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+
+	private PreviewSurface preview;
+	private Mat output;
+
+	static {
+		System.setProperty("java.awt.headless", "true");
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Before
+	public void setUp() {
+		assertTrue(GraphicsEnvironment.isHeadless());
+		preview = new PreviewSurface();
+		output = BorderStripTest.randomImage(WIDTH, HEIGHT);
+	}
+
+	@After
+	public void tearDown() {
+		preview.close();
+		output.release();
+	}
+
+	@Test
+	public void nothingIsRenderedBeforeTheFirstCell() {
+		preview.progress(output, 0, 4);
+		assertNull(preview.getSize());
+		BufferedImage target = target(WIDTH, HEIGHT);
+		preview.render(target);
+		assertArrayEquals(new byte[WIDTH * HEIGHT * 3], pixels(target));
+	}
+
+	@Test
+	public void firstCellCopiesTheWholeOutput() {
+		preview.cellPlaced(output, new Rect(0, 0, 10, 10));
+		assertEquals(new Dimension(WIDTH, HEIGHT), preview.getSize());
+		assertArrayEquals(ImageQuilter.texturePixels(output), render());
+	}
+
+	@Test
+	public void laterCellsOnlyCopyTheirRegion() {
+		preview.cellPlaced(output, new Rect(0, 0, 10, 10));
+		byte[] before = ImageQuilter.texturePixels(output);
+
+		// The whole output changes, only the cell is reported
+		output.setTo(new Scalar(1, 2, 3));
+		Rect cell = new Rect(12, 5, 9, 20);
+		preview.cellPlaced(output, cell);
+		preview.progress(output, 2, 4);
+
+		byte[] expected = before.clone();
+		for (int y = cell.y; y < cell.y + cell.height; y++) {
+			for (int x = cell.x; x < cell.x + cell.width; x++) {
+				int i = (y * WIDTH + x) * 3;
+				expected[i] = 1;
+				expected[i + 1] = 2;
+				expected[i + 2] = 3;
+			}
+		}
+		assertArrayEquals(expected, render());
+	}
+
+	@Test
+	public void newOutputIsCopiedInFull() {
+		preview.cellPlaced(output, new Rect(0, 0, 10, 10));
+
+		// Another synthesis of the same size
+		Mat next = BorderStripTest.randomImage(WIDTH, HEIGHT);
+		next.setTo(new Scalar(7, 8, 9));
+		preview.cellPlaced(next, new Rect(0, 0, 10, 10));
+		assertArrayEquals(ImageQuilter.texturePixels(next), render());
+
+		// And of another size
+		Mat bigger = BorderStripTest.randomImage(WIDTH + 5, HEIGHT + 2);
+		preview.cellPlaced(bigger, new Rect(0, 0, 10, 10));
+		assertEquals(new Dimension(WIDTH + 5, HEIGHT + 2), preview.getSize());
+		BufferedImage target = target(WIDTH + 5, HEIGHT + 2);
+		preview.render(target);
+		assertArrayEquals(ImageQuilter.texturePixels(bigger), pixels(target));
+		bigger.release();
+		next.release();
+	}
+
+	@Test
+	public void renderScalesToTheTarget() {
+		output.setTo(new Scalar(10, 20, 30));
+		preview.cellPlaced(output, new Rect(0, 0, 10, 10));
+		BufferedImage target = target(WIDTH / 2, HEIGHT / 2);
+		preview.render(target);
+		byte[] pixels = pixels(target);
+		for (int i = 0; i < pixels.length; i += 3) {
+			assertEquals(10, pixels[i]);
+			assertEquals(20, pixels[i + 1]);
+			assertEquals(30, pixels[i + 2]);
+		}
+	}
+
+	private byte[] render() {
+		BufferedImage target = target(WIDTH, HEIGHT);
+		preview.render(target);
+		return pixels(target);
+	}
+
+	private static BufferedImage target(int width, int height) {
+		return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+	}
+
+	private static byte[] pixels(BufferedImage image) {
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -0,0 +1,146 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Checks the keys, the hits and misses and the eviction of the cache, in a
+ * temporary directory.
+ */
+public class ResultCacheTest {
+	private static final Object[] PARAMS = { 200, 150, 36, 6, 1.1, -1, 42L };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void keyChangesWithEveryParameter() {
+		String key = ResultCache.key("abc", PARAMS);
+		assertEquals(key, ResultCache.key("abc", PARAMS.clone()));
+		assertNotEquals(key, ResultCache.key("abd", PARAMS));
+
+		Set<String> keys = new HashSet<>();
+		keys.add(key);
+		for (int i = 0; i < PARAMS.length; i++) {
+			Object[] params = PARAMS.clone();
+			params[i] = "other";
+			keys.add(ResultCache.key("abc", params));
+		}
+		assertEquals(PARAMS.length + 1, keys.size());
+
+		// The parameters are not interchangeable
+		assertNotEquals(ResultCache.key("abc", 1, 2), ResultCache.key("abc",
+				2, 1));
+	}
+
+	@Test
+	public void textureHashFollowsTheContent() throws IOException {
+		File a = folder.newFile("a.jpg");
+		File b = folder.newFile("b.jpg");
+		Files.write(a.toPath(), new byte[] { 1, 2, 3 });
+		Files.write(b.toPath(), new byte[] { 1, 2, 3 });
+		assertEquals(ResultCache.textureHash(a), ResultCache.textureHash(b));
+		Files.write(b.toPath(), new byte[] { 1, 2, 4 });
+		assertNotEquals(ResultCache.textureHash(a), ResultCache.textureHash(b));
+
+		Mat image = BorderStripTest.randomImage(8, 6);
+		Mat same = image.clone();
+		assertEquals(ResultCache.textureHash(image), ResultCache
+				.textureHash(same));
+		Mat other = BorderStripTest.randomImage(6, 8);
+		assertNotEquals(ResultCache.textureHash(image), ResultCache
+				.textureHash(other));
+		other.release();
+		same.release();
+		image.release();
+	}
+
+	@Test
+	public void storedImageIsReadBackUnchanged() throws IOException {
+		ResultCache cache = new ResultCache(folder.newFolder("cache"),
+				Long.MAX_VALUE);
+		String key = ResultCache.key("abc", PARAMS);
+		assertNull(cache.get(key));
+		assertEquals(0, cache.size());
+
+		Mat image = BorderStripTest.randomImage(30, 20);
+		cache.put(key, image);
+		assertTrue(cache.size() > 0);
+		Mat read = cache.get(key);
+		assertNotNull(read);
+		assertArrayEquals(ImageQuilter.texturePixels(image), ImageQuilter
+				.texturePixels(read));
+		assertNull(cache.get(ResultCache.key("abc", 1)));
+		read.release();
+		image.release();
+	}
+
+	@Test
+	public void leastRecentlyUsedImagesAreEvicted() throws IOException {
+		File directory = folder.newFolder("cache");
+		Mat[] images = new Mat[3];
+		String[] keys = new String[3];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = BorderStripTest.randomImage(40 + i, 40);
+			keys[i] = ResultCache.key("abc", i);
+		}
+
+		// Room for the two biggest images, not for the three
+		long[] sizes = new long[3];
+		ResultCache measure = new ResultCache(folder.newFolder("measure"),
+				Long.MAX_VALUE);
+		long total = 0;
+		for (int i = 0; i < images.length; i++) {
+			measure.put(keys[i], images[i]);
+			sizes[i] = measure.size() - total;
+			total += sizes[i];
+		}
+		long maxBytes = total - Math.min(sizes[0], Math.min(sizes[1],
+				sizes[2]));
+		ResultCache cache = new ResultCache(directory, maxBytes);
+
+		cache.put(keys[0], images[0]);
+		cache.put(keys[1], images[1]);
+		long now = System.currentTimeMillis();
+		assertTrue(file(directory, keys[0]).setLastModified(now - 20000));
+		assertTrue(file(directory, keys[1]).setLastModified(now - 10000));
+
+		// Reading the oldest one makes it the most recently used
+		Mat read = cache.get(keys[0]);
+		read.release();
+		cache.put(keys[2], images[2]);
+
+		assertTrue(cache.size() <= maxBytes);
+		assertNull(cache.get(keys[1]));
+		for (int i : new int[] { 0, 2 }) {
+			read = cache.get(keys[i]);
+			assertNotNull("Image " + i + " was evicted", read);
+			read.release();
+		}
+		for (Mat image : images) {
+			image.release();
+		}
+	}
+
+	private static File file(File directory, String key) {
+		return new File(directory, key + ".png");
+	}
+}
@@ -0,0 +1,130 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+
+/**
+ * Checks the cost of the seams against every seam of small patches.
+ */
+public class SeamCutterTest {
+	private static final int PATCH_SIZE = 6;
+	private static final int OVERLAP_SIZE = 3;
+	private static final int CHANNELS = 3;
+	private static final int TRIALS = 60;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void leftSeamHasTheMinimumCost() {
+		check(true, false, false);
+		check(true, false, true);
+	}
+
+	@Test
+	public void topSeamHasTheMinimumCost() {
+		check(false, true, false);
+		check(false, true, true);
+	}
+
+	@Test
+	public void cornerSeamsHaveTheMinimumCost() {
+		check(true, true, false);
+		check(true, true, true);
+	}
+
+	private static void check(boolean left, boolean top,
+			boolean allowHorizontal) {
+		Random random = new Random(PATCH_SIZE * 31 + (left ? 2 : 0)
+				+ (top ? 1 : 0));
+		SeamCutter cutter = new SeamCutter(PATCH_SIZE, OVERLAP_SIZE);
+		int stride = PATCH_SIZE * CHANNELS;
+		for (int trial = 0; trial < TRIALS; trial++) {
+			byte[] output = new byte[PATCH_SIZE * stride];
+			byte[] source = new byte[PATCH_SIZE * stride];
+			random.nextBytes(source);
+			for (int i = 0; i < output.length; i += CHANNELS) {
+				// Half the pixels match, so the seams have free runs and ties
+				boolean match = random.nextBoolean();
+				for (int ch = 0; ch < CHANNELS; ch++) {
+					output[i + ch] = match ? source[i + ch] : (byte) random
+							.nextInt(256);
+				}
+			}
+			double cost = cutter.cut(output, 0, stride, source, 0, stride,
+					CHANNELS, left, top, allowHorizontal);
+			assertEquals(bruteForce(output, source, left, top,
+					allowHorizontal), cost, 0);
+		}
+	}
+
+	/**
+	 * This method tries every seam: a vertical one from the top of the left
+	 * overlap to the bottom, a horizontal one from the left of the top
+	 * overlap to the right, or both from a spot of the corner square, which
+	 * is counted once.
+	 */
+	private static double bruteForce(byte[] output, byte[] source,
+			boolean left, boolean top, boolean allowHorizontal) {
+		double[][] errors = new double[PATCH_SIZE][PATCH_SIZE];
+		for (int r = 0; r < PATCH_SIZE; r++) {
+			for (int c = 0; c < PATCH_SIZE; c++) {
+				int offset = (r * PATCH_SIZE + c) * CHANNELS;
+				for (int ch = 0; ch < CHANNELS; ch++) {
+					int d = (output[offset + ch] & 0xff)
+							- (source[offset + ch] & 0xff);
+					errors[r][c] += d * d;
+				}
+			}
+		}
+
+		double best = Double.MAX_VALUE;
+		if (left && top) {
+			for (int r = 0; r < OVERLAP_SIZE; r++) {
+				for (int c = 0; c < OVERLAP_SIZE; c++) {
+					best = Math.min(best, MinPathFinderTest.minCost(
+							vertical(errors, r), 0, c, allowHorizontal)
+							+ MinPathFinderTest.minCost(horizontal(errors, c),
+									0, r, allowHorizontal) - errors[r][c]);
+				}
+			}
+		} else {
+			double[][] grid = left ? vertical(errors, 0) : horizontal(errors,
+					0);
+			for (int k = 0; k < OVERLAP_SIZE; k++) {
+				best = Math.min(best, MinPathFinderTest.minCost(grid, 0, k,
+						allowHorizontal));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the left overlap from a row down, a row per patch row
+	 */
+	private static double[][] vertical(double[][] errors, int fromRow) {
+		double[][] grid = new double[PATCH_SIZE - fromRow][OVERLAP_SIZE];
+		for (int r = fromRow; r < PATCH_SIZE; r++) {
+			for (int k = 0; k < OVERLAP_SIZE; k++) {
+				grid[r - fromRow][k] = errors[r][k];
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * @return the top overlap from a column right, a row per patch column
+	 */
+	private static double[][] horizontal(double[][] errors, int fromCol) {
+		double[][] grid = new double[PATCH_SIZE - fromCol][OVERLAP_SIZE];
+		for (int c = fromCol; c < PATCH_SIZE; c++) {
+			for (int k = 0; k < OVERLAP_SIZE; k++) {
+				grid[c - fromCol][k] = errors[k][c];
+			}
+		}
+		return grid;
+	}
+}
@@ -0,0 +1,173 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+/**
+ * Checks that the tiles cover the output, overlap their neighbours by the
+ * overlap of the cells and come in waves that only wait for previous ones.
+ */
+public class TilePartitionerTest {
+	private static final int PATCH_SIZE = 24;
+	private static final int OVERLAP_SIZE = 4;
+	private static final int TILE_CELLS = 2;
+	private static final int SPAN = TILE_CELLS * (PATCH_SIZE - OVERLAP_SIZE);
+
+	private TilePartitioner partitioner = new TilePartitioner(PATCH_SIZE,
+			OVERLAP_SIZE, TILE_CELLS);
+
+	@Test
+	public void tilesCoverTheOutput() {
+		int[][] sizes = { { 1, 1 }, { 30, 200 }, { SPAN + OVERLAP_SIZE,
+				SPAN + OVERLAP_SIZE }, { SPAN + OVERLAP_SIZE + 1, 97 },
+				{ 130, 95 } };
+		for (int[] size : sizes) {
+			int width = size[0];
+			int height = size[1];
+			int[] covered = new int[width * height];
+			for (Tile tile : partitioner.partition(width, height)) {
+				Rect region = tile.getRegion();
+				assertTrue(tile + " is outside the output", region.x >= 0
+						&& region.y >= 0 && region.x + region.width <= width
+						&& region.y + region.height <= height);
+				for (int y = region.y; y < region.y + region.height; y++) {
+					for (int x = region.x; x < region.x + region.width; x++) {
+						covered[y * width + x]++;
+					}
+				}
+			}
+			for (int i = 0; i < covered.length; i++) {
+				assertTrue("Pixel " + i + " of " + width + "x" + height
+						+ " is not covered", covered[i] > 0);
+			}
+		}
+	}
+
+	@Test
+	public void neighboursShareTheOverlap() {
+		List<Tile> tiles = partitioner.partition(130, 95);
+		int cols = partitioner.tilesAlong(130);
+		int rows = partitioner.tilesAlong(95);
+		assertEquals(4, cols);
+		assertEquals(3, rows);
+		assertEquals(cols * rows, tiles.size());
+		Tile[] grid = grid(tiles, cols, rows);
+		for (Tile tile : tiles) {
+			Rect region = tile.getRegion();
+			assertEquals(tile.getCol() * SPAN, region.x);
+			assertEquals(tile.getRow() * SPAN, region.y);
+			if (tile.hasRight()) {
+				Rect right = grid[tile.getRow() * cols + tile.getCol() + 1]
+						.getRegion();
+				assertEquals(region.x + region.width - OVERLAP_SIZE, right.x);
+			}
+			if (tile.hasBottom()) {
+				Rect below = grid[(tile.getRow() + 1) * cols + tile.getCol()]
+						.getRegion();
+				assertEquals(region.y + region.height - OVERLAP_SIZE, below.y);
+			}
+		}
+	}
+
+	@Test
+	public void edgeTilesAreCropped() {
+		int cols = partitioner.tilesAlong(130);
+		int rows = partitioner.tilesAlong(95);
+		for (Tile tile : partitioner.partition(130, 95)) {
+			Rect region = tile.getRegion();
+			boolean lastCol = tile.getCol() == cols - 1;
+			boolean lastRow = tile.getRow() == rows - 1;
+			assertEquals(!lastCol, tile.hasRight());
+			assertEquals(!lastRow, tile.hasBottom());
+			assertEquals(tile.getCol() > 0, tile.hasLeft());
+			assertEquals(tile.getRow() > 0, tile.hasTop());
+			assertEquals(lastCol ? 130 - region.x : SPAN + OVERLAP_SIZE,
+					region.width);
+			assertEquals(lastRow ? 95 - region.y : SPAN + OVERLAP_SIZE,
+					region.height);
+		}
+
+		// A tile only starts where there are pixels beyond the overlap
+		assertEquals(1, partitioner.tilesAlong(SPAN + OVERLAP_SIZE));
+		assertEquals(2, partitioner.tilesAlong(SPAN + OVERLAP_SIZE + 1));
+		assertEquals(1, partitioner.tilesAlong(1));
+	}
+
+	@Test
+	public void wavesOnlyWaitForPreviousWaves() {
+		List<Tile> tiles = partitioner.partition(210, 170);
+		int wave = 0;
+		Set<Long> done = new HashSet<>();
+		for (Tile tile : tiles) {
+			int tileWave = tile.getCol() + tile.getRow();
+			assertTrue("Tiles are not in waves", tileWave >= wave);
+			wave = tileWave;
+			if (tile.hasLeft()) {
+				assertTrue(tile + " comes before its left neighbour",
+						done.contains(key(tile.getCol() - 1, tile.getRow())));
+			}
+			if (tile.hasTop()) {
+				assertTrue(tile + " comes before its top neighbour",
+						done.contains(key(tile.getCol(), tile.getRow() - 1)));
+			}
+			done.add(key(tile.getCol(), tile.getRow()));
+		}
+	}
+
+	@Test
+	public void workersShareEveryTileOnceInWaves() {
+		List<Tile> tiles = partitioner.partition(210, 170);
+		for (int workers = 1; workers <= tiles.size() + 1; workers++) {
+			List<Tile> all = new ArrayList<>();
+			for (int worker = 0; worker < workers; worker++) {
+				List<Tile> own = TilePartitioner.tilesOf(tiles, worker,
+						workers);
+				int wave = 0;
+				for (Tile tile : own) {
+					assertTrue(tile.getCol() + tile.getRow() >= wave);
+					wave = tile.getCol() + tile.getRow();
+				}
+				all.addAll(own);
+			}
+			assertEquals(tiles.size(), all.size());
+			assertEquals(new HashSet<>(tiles), new HashSet<>(all));
+		}
+	}
+
+	@Test
+	public void tileCellsAddUpToTheOutputCells() {
+		int step = PATCH_SIZE - OVERLAP_SIZE;
+		int width = 130;
+		int height = 95;
+		int cells = 0;
+		for (Tile tile : partitioner.partition(width, height)) {
+			cells += partitioner.cellsOf(tile);
+		}
+		int cols = (width - OVERLAP_SIZE + step - 1) / step;
+		int rows = (height - OVERLAP_SIZE + step - 1) / step;
+		assertEquals(cols * rows, cells);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noSuchWorker() {
+		TilePartitioner.tilesOf(partitioner.partition(130, 95), 2, 2);
+	}
+
+	private static Tile[] grid(List<Tile> tiles, int cols, int rows) {
+		Tile[] grid = new Tile[cols * rows];
+		for (Tile tile : tiles) {
+			grid[tile.getRow() * cols + tile.getCol()] = tile;
+		}
+		return grid;
+	}
+
+	private static long key(int col, int row) {
+		return ((long) col << 32) | row;
+	}
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Checks that a tiled synthesis does not depend on the workers or on the
+ * transport of the strips.
+ */
+public class TiledQuilterTest {
+	private static final int PATCH_SIZE = 24;
+	private static final int OVERLAP_SIZE = 4;
+	private static final int TILE_CELLS = 2;
+	private static final int OUT_WIDTH = 130;
+	private static final int OUT_HEIGHT = 95;
+
+	private static Mat texture;
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@BeforeClass
+	public static void loadTexture() {
+		File textureFile = new File(System.getProperty("textures.dir",
+				"resources/textures"), "0.jpg");
+		Mat image = Imgcodecs.imread(textureFile.getAbsolutePath(),
+				Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		assertTrue("Cannot read " + textureFile, !image.empty());
+		texture = image.submat(new Rect(0, 0, 96, 96)).clone();
+		image.release();
+	}
+
+	@AfterClass
+	public static void release() {
+		texture.release();
+	}
+
+	@Test
+	public void workersGiveTheSameOutput() {
+		byte[] expected = synthesize(1);
+		assertArrayEquals(expected, synthesize(2));
+		assertArrayEquals(expected, synthesize(4));
+	}
+
+	@Test
+	public void loopbackSocketsGiveTheSameOutput() throws Exception {
+		byte[] expected = synthesize(1);
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		try (BorderServer server = new BorderServer(0, loopback);
+				ImageQuilter quilter = quilter()) {
+			Mat output = tiled().synthesize(quilter, OUT_WIDTH, OUT_HEIGHT,
+					3, new SocketBorderTransport(loopback.getHostAddress(),
+							server.getPort()), server.getTransport());
+			assertArrayEquals(expected, ImageQuilter.texturePixels(output));
+			output.release();
+		}
+	}
+
+	@Test
+	public void coordinatorReportsTheProgress() {
+		final Thread coordinator = Thread.currentThread();
+		final int[] last = new int[2];
+		final int[] tiles = new int[1];
+		TiledQuilter tiled = tiled();
+		tiled.setProgressSink(new ProgressSink() {
+			@Override
+			public void cellPlaced(Mat output, Rect cell) {
+				assertSame(coordinator, Thread.currentThread());
+				assertEquals(OUT_WIDTH, output.cols());
+				assertTrue(cell.x + cell.width <= OUT_WIDTH
+						&& cell.y + cell.height <= OUT_HEIGHT);
+				tiles[0]++;
+			}
+
+			@Override
+			public void progress(Mat output, int cellsPlaced, int cellCount) {
+				assertSame(coordinator, Thread.currentThread());
+				assertTrue(cellsPlaced > last[0]);
+				last[0] = cellsPlaced;
+				last[1] = cellCount;
+			}
+		});
+
+		// The sink of the quilter is not called by the workers
+		final boolean[] quilterCalled = new boolean[1];
+		try (ImageQuilter quilter = quilter()) {
+			quilter.setProgressSink(new ProgressSink() {
+				@Override
+				public void progress(Mat output, int cellsPlaced,
+						int cellCount) {
+					quilterCalled[0] = true;
+				}
+			});
+			tiled.synthesize(quilter, OUT_WIDTH, OUT_HEIGHT, 2).release();
+		}
+		assertTrue(!quilterCalled[0]);
+		assertEquals(12, tiles[0]);
+		// 7 columns by 5 rows of cells
+		assertEquals(35, last[1]);
+		assertEquals(35, last[0]);
+	}
+
+	private static byte[] synthesize(int workers) {
+		try (ImageQuilter quilter = quilter()) {
+			Mat output = tiled().synthesize(quilter, OUT_WIDTH, OUT_HEIGHT,
+					workers);
+			byte[] pixels = ImageQuilter.texturePixels(output);
+			output.release();
+			return pixels;
+		}
+	}
+
+	private static TiledQuilter tiled() {
+		return new TiledQuilter(new TilePartitioner(PATCH_SIZE, OVERLAP_SIZE,
+				TILE_CELLS));
+	}
+
+	private static ImageQuilter quilter() {
+		ImageQuilter quilter = new ImageQuilter(texture, PATCH_SIZE,
+				OVERLAP_SIZE, false, 0);
+		quilter.setSeed(7);
+		return quilter;
+	}
+}